@@ -0,0 +1,261 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+// Renders a list of camera poses without a window, for generating images in bulk:
+//
+//   java -Djava.awt.headless=true BatchRenderer sample <map> <poses.txt> <count> [seed]
+//   java -Djava.awt.headless=true BatchRenderer render <map> <poses.txt> <outdir> [width height] [png|raw]
+//
+// A pose file holds an "x y direction fov" line per frame, angles in radians, and may
+// have blank lines and # comments. Frame i goes to frame-<i>.png or .raw, where raw is
+// width * height packed RGB bytes, row by row. Every worker thread draws the floor and
+// wall passes of whole frames into its own framebuffer, and -Draycaster.writers threads
+// encode finished copies meanwhile.
+public class BatchRenderer {
+	private static class Frame {
+		final int index;
+		final int[] pixels;
+
+		Frame(int index, int[] pixels) {
+			this.index = index;
+			this.pixels = pixels;
+		}
+	}
+
+	// tells a writer that no more frames are coming
+	private final static Frame END = new Frame(-1, null);
+
+	private final Map map;
+	private final Textures textures;
+	private final int width, height;
+	private final double[] poses;
+	private final int count;
+	private final Path directory;
+	private final boolean png;
+
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicLong renderNanos = new AtomicLong();
+
+	// copies waiting for a writer, and empty ones for the workers to fill
+	private final BlockingQueue<Frame> finished;
+	private final BlockingQueue<int[]> free;
+
+	private volatile RuntimeException failure;
+
+	public BatchRenderer(Map map, Textures textures, int width, int height, double[] poses, Path directory,
+			boolean png, int buffers) {
+		this.map = map;
+		this.textures = textures;
+		this.width = width;
+		this.height = height;
+		this.poses = poses;
+		this.count = poses.length / 4;
+		this.directory = directory;
+		this.png = png;
+
+		finished = new ArrayBlockingQueue<Frame>(buffers);
+		free = new ArrayBlockingQueue<int[]>(buffers);
+		for (int i = 0; i < buffers; ++i)
+			free.add(new int[width * height]);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length >= 4 && args[0].equals("sample")) {
+			long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+			sample(loadMap(args[1]), Paths.get(args[2]), Integer.parseInt(args[3]), seed);
+		} else if (args.length >= 4 && args[0].equals("render")) {
+			int width = args.length >= 6 ? Integer.parseInt(args[4]) : 320;
+			int height = args.length >= 6 ? Integer.parseInt(args[5]) : 200;
+			boolean png = !args[args.length - 1].equals("raw");
+
+			int workers = RenderPool.defaultSize();
+			int writers = Math.max(1, Integer.getInteger("raycaster.writers", 1));
+			Path directory = Files.createDirectories(Paths.get(args[3]));
+
+			BatchRenderer batch = new BatchRenderer(loadMap(args[1]), new Textures(), width, height,
+					readPoses(Paths.get(args[2])), directory, png, 2 * (workers + writers));
+			batch.run(workers, writers);
+		} else {
+			System.err.println("usage: java BatchRenderer sample <map> <poses.txt> <count> [seed]");
+			System.err.println("       java BatchRenderer render <map> <poses.txt> <outdir> [width height] [png|raw]");
+			System.exit(2);
+		}
+	}
+
+	private static Map loadMap(String filename) {
+		return filename.endsWith(".tiles") ? new PagedMap(filename, PagedMap.defaultBudget()) : new Map(filename);
+	}
+
+	// Writes count poses at the centres of random empty cells, facing random ways with
+	// the game's field of view.
+	public static void sample(Map map, Path file, int count, long seed) throws IOException {
+		Random random = new Random(seed);
+		double fov = Math.toRadians(66.6);
+
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+			out.println("# x y direction fov");
+
+			for (int i = 0; i < count; ++i) {
+				int x, y;
+				do {
+					x = random.nextInt(map.getWidth());
+					y = random.nextInt(map.getHeight());
+				} while (map.get(x, y) != 0);
+
+				out.printf("%.4f %.4f %.6f %.6f%n", x + 0.5, y + 0.5, random.nextDouble() * Raycaster.TAU, fov);
+			}
+		}
+	}
+
+	// Every pose as four doubles in a row: x, y, direction and fov.
+	public static double[] readPoses(Path file) throws IOException {
+		double[] poses = new double[4096];
+		int size = 0;
+		int line = 0;
+
+		try (BufferedReader reader = Files.newBufferedReader(file)) {
+			String text;
+
+			while ((text = reader.readLine()) != null) {
+				line++;
+				text = text.trim();
+				if (text.isEmpty() || text.startsWith("#"))
+					continue;
+
+				String[] fields = text.split("\\s+");
+				if (fields.length != 4)
+					throw new IllegalArgumentException(file + ":" + line + ": expected x y direction fov");
+
+				if (size + 4 > poses.length)
+					poses = Arrays.copyOf(poses, poses.length * 2);
+
+				try {
+					for (String field : fields)
+						poses[size++] = Double.parseDouble(field);
+				} catch (NumberFormatException ex) {
+					throw new IllegalArgumentException(file + ":" + line + ": " + ex.getMessage(), ex);
+				}
+			}
+		}
+
+		return Arrays.copyOf(poses, size);
+	}
+
+	public void run(int workers, int writers) throws InterruptedException {
+		Thread[] threads = new Thread[workers + writers];
+
+		for (int i = 0; i < threads.length; ++i) {
+			threads[i] = i < workers ? new Thread(this::work, "batch-worker-" + i)
+					: new Thread(this::write, "batch-writer-" + (i - workers));
+			threads[i].start();
+		}
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < workers; ++i)
+			threads[i].join();
+		for (int i = 0; i < writers; ++i)
+			finished.put(END);
+		for (int i = workers; i < threads.length; ++i)
+			threads[i].join();
+
+		double seconds = (System.nanoTime() - start) * 1e-9;
+
+		if (failure != null)
+			throw failure;
+
+		int frames = Math.min(count, next.get());
+		System.out.printf("%d frames at %dx%d in %.2f s with %d workers and %d writers: %.1f fps, %.1f fps per worker%n",
+				frames, width, height, seconds, workers, writers, frames / seconds, frames / seconds / workers);
+		System.out.printf("rendering alone: %.1f fps per core%n", frames / (renderNanos.get() * 1e-9));
+	}
+
+	private void work() {
+		int[] framebuffer = new int[width * height];
+
+		// the frames are the parallel work, so each renderer draws its own passes alone
+		Renderer renderer = new Renderer(map, textures, framebuffer, width, height, new RenderPool(1));
+		long rendering = 0;
+
+		try {
+			for (int i = next.getAndIncrement(); i < count && failure == null; i = next.getAndIncrement()) {
+				long t0 = System.nanoTime();
+				renderer.setCamera(poses[4 * i], poses[4 * i + 1], poses[4 * i + 2], poses[4 * i + 3]);
+				renderer.drawWalls();
+				renderer.drawFloorAndCeiling();
+				rendering += System.nanoTime() - t0;
+
+				int[] pixels = free.take();
+				System.arraycopy(framebuffer, 0, pixels, 0, pixels.length);
+				finished.put(new Frame(i, pixels));
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException ex) {
+			failure = ex;
+		}
+
+		renderNanos.addAndGet(rendering);
+	}
+
+	private void write() {
+		BufferedImage image = png ? new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB) : null;
+		byte[] raw = png ? null : new byte[3 * width * height];
+
+		try {
+			for (Frame frame = finished.take(); frame != END; frame = finished.take()) {
+				// a failed run still drains the queue, so the workers never block on it
+				if (failure == null) {
+					try {
+						write(frame, image, raw);
+					} catch (IOException ex) {
+						failure = new UncheckedIOException("could not write a frame to " + directory, ex);
+					} catch (RuntimeException ex) {
+						failure = ex;
+					}
+				}
+
+				free.put(frame.pixels);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write(Frame frame, BufferedImage image, byte[] raw) throws IOException {
+		Path file = directory.resolve(String.format("frame-%07d.%s", frame.index, png ? "png" : "raw"));
+
+		if (png) {
+			int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			System.arraycopy(frame.pixels, 0, data, 0, data.length);
+			if (!ImageIO.write(image, "png", file.toFile()))
+				throw new IOException("no PNG writer available");
+		} else {
+			for (int p = 0, b = 0; p < frame.pixels.length; ++p) {
+				int color = frame.pixels[p];
+				raw[b++] = (byte) (color >> 16);
+				raw[b++] = (byte) (color >> 8);
+				raw[b++] = (byte) color;
+			}
+			Files.write(file, raw);
+		}
+	}
+}
@@ -0,0 +1,1178 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import java.lang.management.ManagementFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.ThreadMXBean;
+
+// Headless timings and checks:  java -Djava.awt.headless=true Benchmark [mode] [frames]
+//   passes   times each render pass at several resolutions and map sizes
+//   dda      times the double and fixed-point traversals down a long hall
+//   compare  diffs fixed-point walls and vector floors against the double ones, exits 1 past the tolerance
+//   load     times parsing generated text maps of several sizes
+//   skip     compares DDA map reads and wall time with and without a clearance field
+//   mipmaps  times the floor and wall passes with full-size textures and with mipmaps
+//   closeup  times walls filling the screen from row-major and column-major textures
+//   sprites  times culling, sorting and drawing thousands of sprites
+//   palette  times the 32-bit passes against the 8-bit palette mode and its lookup pass
+//   fog      times the passes without lighting and with the distance fog colormaps
+//   simd     times the floor pass with the scalar and the Vector API Spans, see Spans
+//   overdraw times casting the whole floor under the walls against casting only its gaps
+//   alloc    counts bytes allocated per rendered frame in every mode, exits 1 above a small tolerance,
+//            run with -XX:-DoEscapeAnalysis
+//   pipeline compares raycasting then blitting each frame with the two overlapped
+//   reuse    compares casting every frame with temporal ray reuse while turning and standing
+//   stats    prints per-phase frame time percentiles as CSV, once every 60 frames
+//   split    times 1 to 4 split-screen views against drawing them one after another
+//   scaling  lets the resolution scaler settle at several target frame rates
+//   replay   replays a recorded input log headless, one frame per tick, see InputLog
+//   paged    flies across a generated 8192x8192 PagedMap under a 1 MB chunk budget
+public class Benchmark {
+	private final static int[][] RESOLUTIONS = { { 320, 200 }, { 640, 400 }, { 1280, 800 }, { 1920, 1200 } };
+
+	// 0 stands for assets/map.txt, everything else is a generated size x size map
+	private final static int[] MAP_SIZES = { 0, 64, 512, 2048 };
+
+	private final static double FOV = Math.toRadians(66.6);
+
+	// share of pixels a fixed-point frame may differ in from the double one
+	private final static double COMPARE_TOLERANCE = 0.01;
+
+	// bytes the counted laps of one alloc run may allocate in all, for the odd one-off the
+	// JVM makes on this thread when C2 deoptimizes and relinks a constant or call site.
+	// One 16-byte object a frame exceeds it over three laps of 32 frames, the fewest alloc takes.
+	private final static long ALLOC_TOLERANCE = 1024;
+
+	public static void main(String[] args) {
+		String mode = args.length > 0 ? args[0] : "passes";
+		// replay takes a log file where the other modes take a frame count
+		int frames = args.length > 1 && !mode.equals("replay") ? Integer.parseInt(args[1]) : 300;
+
+		switch (mode) {
+		case "passes":
+			passes(frames);
+			break;
+		case "dda":
+			dda(frames);
+			break;
+		case "compare":
+			System.exit(compare(frames) ? 0 : 1);
+			break;
+		case "load":
+			load();
+			break;
+		case "skip":
+			skip(frames);
+			break;
+		case "mipmaps":
+			mipmaps(frames);
+			break;
+		case "closeup":
+			closeup(frames);
+			break;
+		case "sprites":
+			sprites(frames);
+			break;
+		case "palette":
+			palette(frames);
+			break;
+		case "fog":
+			fog(frames);
+			break;
+		case "simd":
+			simd(frames);
+			break;
+		case "overdraw":
+			overdraw(frames);
+			break;
+		case "alloc":
+			System.exit(alloc(frames) ? 0 : 1);
+			break;
+		case "pipeline":
+			pipeline(frames);
+			break;
+		case "reuse":
+			reuse(frames);
+			break;
+		case "stats":
+			stats(frames);
+			break;
+		case "split":
+			split(frames);
+			break;
+		case "scaling":
+			scaling(frames);
+			break;
+		case "replay":
+			replay(args.length > 1 ? args[1] : "assets/tour.log");
+			break;
+		case "paged":
+			paged(frames);
+			break;
+		default:
+			throw new IllegalArgumentException("unknown mode " + mode
+					+ ", expected passes, dda, compare, load, skip, mipmaps, closeup, sprites, palette, fog, simd, overdraw, alloc,"
+					+ " pipeline, reuse, stats, split, scaling, replay or paged");
+		}
+	}
+
+	private static void passes(int frames) {
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames);
+		System.out.printf("%-10s %-10s %12s %12s %12s%n", "resolution", "map", "floor ms", "walls ms", "minimap ms");
+
+		for (int size : MAP_SIZES) {
+			Map map = size == 0 ? new Map("assets/map.txt") : generateMap(size, 42, 3);
+			double x = size == 0 ? 9 : size / 2 + 0.5;
+			double y = size == 0 ? 9 : size / 2 + 0.5;
+
+			for (int[] resolution : RESOLUTIONS) {
+				Renderer renderer = new Renderer(map, textures, resolution[0], resolution[1], pool);
+
+				run(renderer, x, y, frames);
+				double[] ms = run(renderer, x, y, frames);
+
+				System.out.printf("%-10s %-10s %12.3f %12.3f %12.3f%n", resolution[0] + "x" + resolution[1],
+						map.getWidth() + "x" + map.getHeight(), ms[0], ms[1], ms[2]);
+			}
+		}
+	}
+
+	private static void dda(int frames) {
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		Map map = generateHall(2048, 256);
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames + ", map: 2048x256 hall");
+		System.out.printf("%-10s %12s %12s%n", "resolution", "double ms", "fixed ms");
+
+		for (int[] resolution : RESOLUTIONS) {
+			Renderer renderer = new Renderer(map, textures, resolution[0], resolution[1], pool);
+			double[] ms = new double[2];
+
+			for (int i = 0; i < 4; ++i) {
+				renderer.setFixedPoint(i % 2 == 1);
+				ms[i % 2] = runWalls(renderer, 2.5, 128.5, 0, frames);
+			}
+
+			System.out.printf("%-10s %12.3f %12.3f%n", resolution[0] + "x" + resolution[1], ms[0], ms[1]);
+		}
+	}
+
+	// Mean milliseconds per wall pass while sweeping 0.6 radians around a direction.
+	private static double runWalls(Renderer renderer, double x, double y, double direction, int frames) {
+		long walls = 0;
+
+		for (int i = 0; i < frames; ++i) {
+			renderer.setCamera(x, y, direction + 0.6 * i / frames - 0.3, FOV);
+
+			long t0 = System.nanoTime();
+			renderer.drawWalls();
+			walls += System.nanoTime() - t0;
+		}
+
+		return walls * 1e-6 / frames;
+	}
+
+	private static void load() {
+		System.out.printf("%-12s %10s %12s %10s%n", "map", "file MB", "load ms", "MB/s");
+
+		for (int size : new int[] { 256, 1024, 4096 }) {
+			try {
+				Path file = Files.createTempFile("map" + size, ".txt");
+				writeMap(generateMap(size, 42, 3), file);
+
+				long best = Long.MAX_VALUE;
+				for (int i = 0; i < 3; ++i) {
+					long t0 = System.nanoTime();
+					new Map(file.toString());
+					best = Math.min(best, System.nanoTime() - t0);
+				}
+
+				double mb = Files.size(file) / 1e6;
+				System.out.printf("%-12s %10.1f %12.1f %10.1f%n", size + "x" + size, mb, best * 1e-6, mb / (best * 1e-9));
+
+				Files.delete(file);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+
+	private static void skip(int frames) {
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		String[] names = { "sparse 512", "dense 512", "hall 2048x256" };
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames + ", 640x400");
+		System.out.printf("%-14s %14s %14s %12s %12s %10s%n", "map", "reads/ray", "skip reads", "walls ms",
+				"skip ms", "identical");
+
+		for (int m = 0; m < names.length; ++m) {
+			Map plain = m == 0 ? generateMap(512, 42, 1) : m == 1 ? generateMap(512, 42, 25) : generateHall(2048, 256);
+			Map field = m == 0 ? generateMap(512, 42, 1) : m == 1 ? generateMap(512, 42, 25) : generateHall(2048, 256);
+			field.buildClearance();
+
+			Renderer[] renderers = { new Renderer(plain, textures, 640, 400, pool), new Renderer(field, textures, 640, 400, pool) };
+			double x = m == 2 ? 2.5 : 256.5;
+			double y = m == 2 ? 128.5 : 256.5;
+
+			long[] steps = new long[2];
+			long[] walls = new long[2];
+			boolean identical = true;
+
+			for (int i = -frames; i < frames; ++i) {
+				for (int r = 0; r < 2; ++r) {
+					renderers[r].setCamera(x, y, Raycaster.TAU * i / frames, FOV);
+
+					long t0 = System.nanoTime();
+					renderers[r].drawWalls();
+					long elapsed = System.nanoTime() - t0;
+
+					// the first lap only warms up
+					if (i >= 0) {
+						walls[r] += elapsed;
+						steps[r] += renderers[r].getSteps();
+					}
+				}
+
+				identical &= Arrays.equals(renderers[0].getFramebuffer(), renderers[1].getFramebuffer());
+			}
+
+			double[] reads = { (double) steps[0] / frames / 640, (double) steps[1] / frames / 640 };
+			double[] ms = { walls[0] * 1e-6 / frames, walls[1] * 1e-6 / frames };
+
+			System.out.printf("%-14s %14.1f %14.1f %12.3f %12.3f %10s%n", names[m], reads[0], reads[1], ms[0], ms[1],
+					identical ? "yes" : "NO");
+		}
+	}
+
+	private static void mipmaps(int frames) {
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		Map[] maps = { generateMap(512, 42, 1), generateHall(2048, 256) };
+		String[] names = { "sparse 512", "hall 2048x256" };
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames);
+		System.out.printf("%-10s %-14s %12s %12s %12s %12s%n", "resolution", "map", "floor ms", "mip floor ms",
+				"walls ms", "mip walls ms");
+
+		for (int m = 0; m < maps.length; ++m) {
+			double x = m == 1 ? 2.5 : 256.5;
+			double y = m == 1 ? 128.5 : 256.5;
+
+			for (int[] resolution : RESOLUTIONS) {
+				Renderer renderer = new Renderer(maps[m], textures, resolution[0], resolution[1], pool);
+				double[][] ms = new double[2][];
+
+				// alternate so both settings see the same warm-up
+				for (int i = 0; i < 4; ++i) {
+					renderer.setMipmapping(i % 2 == 1);
+					ms[i % 2] = run(renderer, x, y, frames);
+				}
+
+				System.out.printf("%-10s %-14s %12.3f %12.3f %12.3f %12.3f%n", resolution[0] + "x" + resolution[1],
+						names[m], ms[0][0], ms[1][0], ms[0][1], ms[1][1]);
+			}
+		}
+	}
+
+	private static void closeup(int frames) {
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		Map map = generateHall(64, 64);
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames);
+		System.out.printf("%-10s %10s %14s %14s%n", "resolution", "distance", "row-major ms", "column ms");
+
+		for (int[] resolution : RESOLUTIONS) {
+			for (double distance : new double[] { 0.05, 0.25, 1.0 }) {
+				Renderer renderer = new Renderer(map, textures, resolution[0], resolution[1], pool);
+				double[] ms = new double[2];
+
+				// facing the west wall, near enough that a texel spans many rows
+				for (int i = 0; i < 4; ++i) {
+					renderer.setColumnMajor(i % 2 == 1);
+					ms[i % 2] = runWalls(renderer, 1 + distance, 32.5, Math.PI, frames);
+				}
+
+				System.out.printf("%-10s %10.2f %14.3f %14.3f%n", resolution[0] + "x" + resolution[1], distance, ms[0],
+						ms[1]);
+			}
+		}
+	}
+
+	private static void sprites(int frames) {
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		Map map = generateMap(512, 42, 3);
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames + ", 640x400, map: 512x512");
+		System.out.printf("%-10s %10s %12s %12s %12s%n", "sprites", "visible", "walls ms", "sprites ms", "frame fps");
+
+		for (int count : new int[] { 1000, 10000, 100000 }) {
+			Renderer renderer = new Renderer(map, textures, 640, 400, pool);
+			renderer.setSprites(Sprites.scatter(map, count, 8, 42));
+
+			long floor = 0, walls = 0, sprites = 0, visible = 0;
+
+			for (int i = -frames; i < frames; ++i) {
+				renderer.setCamera(256.5, 256.5, Raycaster.TAU * i / frames, FOV);
+
+				long t0 = System.nanoTime();
+				renderer.drawWalls();
+				long t1 = System.nanoTime();
+				renderer.drawFloorAndCeiling();
+				long t2 = System.nanoTime();
+				renderer.drawSprites();
+				long t3 = System.nanoTime();
+
+				// the first lap only warms up
+				if (i >= 0) {
+					walls += t1 - t0;
+					floor += t2 - t1;
+					sprites += t3 - t2;
+					visible += renderer.getVisibleSprites();
+				}
+			}
+
+			System.out.printf("%-10d %10d %12.3f %12.3f %12.0f%n", count, visible / frames, walls * 1e-6 / frames,
+					sprites * 1e-6 / frames, frames / ((floor + walls + sprites) * 1e-9));
+		}
+	}
+
+	private static void palette(int frames) {
+		Map map = new Map("assets/map.txt");
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		Sprites sprites = Sprites.scatter(map, 32, 8, 42);
+
+		long t0 = System.nanoTime();
+		Palette palette = new Palette(textures, new int[0]);
+		System.out.printf("workers: %d, frames per run: %d, palette built in %.1f ms%n", pool.size(), frames,
+				(System.nanoTime() - t0) * 1e-6);
+		System.out.printf("%-10s %-6s %10s %10s %10s %10s %10s %12s%n", "resolution", "mode", "floor ms", "walls ms",
+				"sprites ms", "lookup ms", "total ms", "mean error");
+
+		for (int[] resolution : RESOLUTIONS) {
+			Renderer[] renderers = new Renderer[2];
+			for (int m = 0; m < 2; ++m) {
+				renderers[m] = new Renderer(map, textures, resolution[0], resolution[1], pool);
+				renderers[m].setSprites(sprites);
+			}
+			renderers[1].setPalette(palette);
+
+			double[][] ms = new double[2][4];
+			long error = 0;
+
+			for (int i = -frames; i < frames; ++i) {
+				for (int m = 0; m < 2; ++m) {
+					Renderer renderer = renderers[m];
+					renderer.setCamera(9, 9, Raycaster.TAU * i / frames, FOV);
+
+					long a = System.nanoTime();
+					renderer.drawWalls();
+					long b = System.nanoTime();
+					renderer.drawFloorAndCeiling();
+					long c = System.nanoTime();
+					renderer.drawSprites();
+					long d = System.nanoTime();
+					if (m == 1)
+						renderer.drawPalette();
+					long e = System.nanoTime();
+
+					// the first lap only warms up
+					if (i >= 0) {
+						ms[m][0] += (c - b) * 1e-6 / frames;
+						ms[m][1] += (b - a) * 1e-6 / frames;
+						ms[m][2] += (d - c) * 1e-6 / frames;
+						ms[m][3] += (e - d) * 1e-6 / frames;
+					}
+				}
+
+				// summed channel differences of the last frame, per pixel and channel
+				if (i == frames - 1) {
+					int[] reference = renderers[0].getFramebuffer();
+					int[] indexed = renderers[1].getFramebuffer();
+
+					for (int p = 0; p < resolution[0] * resolution[1]; ++p) {
+						for (int shift = 0; shift < 24; shift += 8)
+							error += Math.abs(((reference[p] >> shift) & 255) - ((indexed[p] >> shift) & 255));
+					}
+				}
+			}
+
+			for (int m = 0; m < 2; ++m) {
+				System.out.printf("%-10s %-6s %10.3f %10.3f %10.3f %10.3f %10.3f %12s%n", resolution[0] + "x" + resolution[1],
+						m == 0 ? "32-bit" : "8-bit", ms[m][0], ms[m][1], ms[m][2], ms[m][3],
+						ms[m][0] + ms[m][1] + ms[m][2] + ms[m][3],
+						m == 0 ? "" : String.format("%.2f", error / (3.0 * resolution[0] * resolution[1])));
+			}
+		}
+	}
+
+	private static void fog(int frames) {
+		Map map = new Map("assets/map.txt");
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		Sprites sprites = Sprites.scatter(map, 32, 8, 42);
+		Palette palette = new Palette(textures, new int[0]);
+
+		long t0 = System.nanoTime();
+		Lighting lighting = new Lighting(textures, null, 12);
+		Lighting indexed = new Lighting(textures, palette, 12);
+		System.out.printf("workers: %d, frames per run: %d, colormaps built in %.1f ms%n", pool.size(), frames,
+				(System.nanoTime() - t0) * 1e-6);
+		System.out.printf("%-10s %-10s %10s %10s %10s %10s%n", "resolution", "mode", "floor ms", "walls ms",
+				"sprites ms", "total ms");
+
+		String[] modes = { "32-bit", "32-bit fog", "8-bit", "8-bit fog" };
+
+		for (int[] resolution : RESOLUTIONS) {
+			Renderer[] renderers = new Renderer[modes.length];
+			for (int m = 0; m < modes.length; ++m) {
+				renderers[m] = new Renderer(map, textures, resolution[0], resolution[1], pool);
+				renderers[m].setSprites(sprites);
+				renderers[m].setPalette(m >= 2 ? palette : null);
+				renderers[m].setLighting(m == 1 ? lighting : m == 3 ? indexed : null);
+			}
+
+			double[][] ms = new double[modes.length][3];
+
+			for (int i = -frames; i < frames; ++i) {
+				for (int m = 0; m < modes.length; ++m) {
+					Renderer renderer = renderers[m];
+					renderer.setCamera(9, 9, Raycaster.TAU * i / frames, FOV);
+
+					long a = System.nanoTime();
+					renderer.drawWalls();
+					long b = System.nanoTime();
+					renderer.drawFloorAndCeiling();
+					long c = System.nanoTime();
+					renderer.drawSprites();
+					long d = System.nanoTime();
+
+					// the first lap only warms up
+					if (i >= 0) {
+						ms[m][0] += (c - b) * 1e-6 / frames;
+						ms[m][1] += (b - a) * 1e-6 / frames;
+						ms[m][2] += (d - c) * 1e-6 / frames;
+					}
+				}
+			}
+
+			for (int m = 0; m < modes.length; ++m) {
+				System.out.printf("%-10s %-10s %10.3f %10.3f %10.3f %10.3f%n", resolution[0] + "x" + resolution[1],
+						modes[m], ms[m][0], ms[m][1], ms[m][2], ms[m][0] + ms[m][1] + ms[m][2]);
+			}
+		}
+	}
+
+	private static void simd(int frames) {
+		Map map = new Map("assets/map.txt");
+		Textures textures = new Textures();
+		Lighting lighting = new Lighting(textures, null, 12);
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		Spans scalar = new Spans();
+		Spans vector = Spans.get();
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames + ", spans: " + vector.getName());
+		if (vector.getClass() == Spans.class)
+			System.out.println("no vector kernels loaded, compile simd/ and run with --add-modules jdk.incubator.vector");
+
+		System.out.printf("%-10s %-12s %12s %12s %16s%n", "resolution", "spans", "floor ms", "speedup", "differing pixels");
+
+		String[] modes = { "scalar", "vector", "scalar fog", "vector fog" };
+
+		for (int[] resolution : RESOLUTIONS) {
+			Renderer[] renderers = new Renderer[modes.length];
+			for (int m = 0; m < modes.length; ++m) {
+				renderers[m] = new Renderer(map, textures, resolution[0], resolution[1], pool);
+				renderers[m].setSpans(m % 2 == 0 ? scalar : vector);
+				renderers[m].setLighting(m >= 2 ? lighting : null);
+			}
+
+			double[] ms = new double[modes.length];
+			long[] differing = new long[modes.length];
+
+			for (int i = -frames; i < frames; ++i) {
+				for (int m = 0; m < modes.length; ++m) {
+					Renderer renderer = renderers[m];
+					renderer.setCamera(9, 9, Raycaster.TAU * i / frames, FOV);
+
+					long t0 = System.nanoTime();
+					renderer.drawFloorAndCeiling();
+					long t1 = System.nanoTime();
+
+					// the first lap only warms up
+					if (i >= 0)
+						ms[m] += (t1 - t0) * 1e-6 / frames;
+
+					// fixed point may pick the next texel at a boundary, see Benchmark compare
+					if (m % 2 == 1 && i >= 0) {
+						int[] reference = renderers[m - 1].getFramebuffer();
+						int[] image = renderer.getFramebuffer();
+
+						for (int p = 0; p < image.length; ++p) {
+							if (image[p] != reference[p])
+								differing[m]++;
+						}
+					}
+				}
+			}
+
+			for (int m = 0; m < modes.length; ++m) {
+				System.out.printf("%-10s %-12s %12.3f %12s %16s%n", resolution[0] + "x" + resolution[1], modes[m], ms[m],
+						m % 2 == 0 ? "" : String.format("%.2fx", ms[m - 1] / ms[m]), m % 2 == 0 ? "" : differing[m]);
+			}
+		}
+	}
+
+	private static void overdraw(int frames) {
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		Sprites sprites = Sprites.scatter(new Map("assets/map.txt"), 32, 8, 42);
+
+		String[] scenes = { "room", "dense", "hall" };
+		Map[] maps = { new Map("assets/map.txt"), generateMap(64, 42, 25), generateHall(2048, 256) };
+		double[][] spots = { { 9, 9 }, { 32.5, 32.5 }, { 2.5, 128.5 } };
+
+		// odd heights leave a floor pixel under every wall whose mirrored ceiling is covered
+		int[][] resolutions = { { 640, 400 }, { 1280, 800 }, { 1279, 799 } };
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames);
+		System.out.printf("%-6s %-10s %-6s %10s %10s %14s %16s%n", "scene", "resolution", "floor", "floor ms", "walls ms",
+				"cast / screen", "differing pixels");
+
+		for (int s = 0; s < scenes.length; ++s) {
+			for (int[] resolution : resolutions) {
+				Renderer[] renderers = new Renderer[2];
+				for (int m = 0; m < 2; ++m) {
+					renderers[m] = new Renderer(maps[s], textures, resolution[0], resolution[1], pool);
+					renderers[m].setFloorGaps(m == 1);
+					renderers[m].setMinimap(null);
+					if (s == 0)
+						renderers[m].setSprites(sprites);
+				}
+
+				double[][] ms = new double[2][2];
+				long[] cast = new long[2];
+				long differing = 0;
+
+				for (int i = -frames; i < frames; ++i) {
+					for (int m = 0; m < 2; ++m) {
+						Renderer renderer = renderers[m];
+						renderer.setCamera(spots[s][0], spots[s][1], Raycaster.TAU * i / frames, FOV);
+
+						long a = System.nanoTime();
+						if (m == 0)
+							renderer.drawFloorAndCeiling();
+						long b = System.nanoTime();
+						renderer.drawWalls();
+						long c = System.nanoTime();
+						if (m == 1)
+							renderer.drawFloorAndCeiling();
+						long d = System.nanoTime();
+						renderer.drawSprites();
+
+						// the first lap only warms up
+						if (i >= 0) {
+							ms[m][0] += ((b - a) + (d - c)) * 1e-6 / frames;
+							ms[m][1] += (c - b) * 1e-6 / frames;
+							cast[m] += renderer.getFloorPixels();
+						}
+					}
+
+					// both orders have to end up with the same frame
+					if (i >= 0) {
+						int[] reference = renderers[0].getFramebuffer();
+						int[] image = renderers[1].getFramebuffer();
+
+						for (int p = 0; p < image.length; ++p) {
+							if (image[p] != reference[p])
+								differing++;
+						}
+					}
+				}
+
+				for (int m = 0; m < 2; ++m) {
+					System.out.printf("%-6s %-10s %-6s %10.3f %10.3f %13.1f%% %16s%n", scenes[s],
+							resolution[0] + "x" + resolution[1], m == 0 ? "full" : "gaps", ms[m][0], ms[m][1],
+							100.0 * cast[m] / frames / (resolution[0] * resolution[1]), m == 0 ? "" : differing);
+				}
+			}
+		}
+	}
+
+	// Renders whole frames through render() on a single-thread pool, so every pass runs on
+	// this thread and its allocation counter sees all of them. Warming up fills the minimap
+	// tiles and sprite buffers. The counted laps are summed rather than the cleanest taken,
+	// so a frame that allocates only now and then still adds up. It refuses to run with
+	// escape analysis on, since C2 may then remove a short-lived object such as a Color
+	// per row that the interpreter or another compile would still allocate.
+	private static boolean alloc(int frames) {
+		HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+		if (Boolean.parseBoolean(hotspot.getVMOption("DoEscapeAnalysis").getValue()))
+			throw new IllegalStateException("alloc needs -XX:-DoEscapeAnalysis, or C2 hides short-lived allocations");
+		if (frames < 32)
+			throw new IllegalArgumentException("alloc needs at least 32 frames a lap, not " + frames);
+
+		Map map = new Map("assets/map.txt");
+		Textures textures = new Textures();
+		Sprites sprites = Sprites.scatter(map, 32, 8, 42);
+		Palette palette = new Palette(textures, new int[0]);
+		Lighting lighting = new Lighting(textures, null, 12);
+		Lighting indexed = new Lighting(textures, palette, 12);
+		FrameStats stats = new FrameStats(null);
+
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		// what reading the counter twice allocates by itself
+		long overhead = -threads.getThreadAllocatedBytes(thread);
+		overhead += threads.getThreadAllocatedBytes(thread);
+
+		String[] modes = { "32-bit", "32-bit fog", "8-bit", "8-bit fog" };
+		Renderer[] renderers = new Renderer[modes.length];
+
+		for (int m = 0; m < modes.length; ++m) {
+			renderers[m] = new Renderer(map, textures, 640, 400, new RenderPool(1));
+			renderers[m].setSprites(sprites);
+			renderers[m].setPalette(m >= 2 ? palette : null);
+			renderers[m].setLighting(m == 1 ? lighting : m == 3 ? indexed : null);
+			renderers[m].setStats(stats);
+		}
+
+		// two rounds through every mode warm up, so the JIT has met all their branches
+		// before anything is counted, then three counted rounds follow
+		long[] warmup = new long[modes.length], counted = new long[modes.length];
+
+		for (int round = 0; round < 5; ++round) {
+			for (int m = 0; m < modes.length; ++m) {
+				long before = threads.getThreadAllocatedBytes(thread);
+
+				for (int i = 0; i < frames; ++i) {
+					renderers[m].setCamera(9, 9, Raycaster.TAU * i / frames, FOV);
+					renderers[m].render();
+				}
+
+				long bytes = Math.max(0, threads.getThreadAllocatedBytes(thread) - before - overhead);
+				if (round < 2)
+					warmup[m] += bytes;
+				else
+					counted[m] += bytes;
+			}
+		}
+
+		System.out.println("frames per lap: " + frames + ", 640x400, one thread, spans: " + Spans.get().getName());
+		System.out.printf("%-10s %14s %14s %14s%n", "mode", "warm-up B", "counted B", "B/frame");
+
+		boolean clean = true;
+		for (int m = 0; m < modes.length; ++m) {
+			System.out.printf("%-10s %14d %14d %14.1f%n", modes[m], warmup[m], counted[m],
+					(double) counted[m] / (3 * frames));
+			clean &= counted[m] <= ALLOC_TOLERANCE;
+		}
+
+		if (!clean)
+			System.out.println("FAILED: the steady-state frame loop allocates more than " + ALLOC_TOLERANCE + " B per run");
+
+		return clean;
+	}
+
+	private static void pipeline(int frames) {
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		Map map = new Map("assets/map.txt");
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames + ", blitting into 1280x800");
+		System.out.printf("%-10s %10s %10s %12s %14s %14s%n", "resolution", "render ms", "blit ms", "serial fps",
+				"2 images fps", "3 images fps");
+
+		for (int[] resolution : new int[][] { { 320, 200 }, { 640, 400 } }) {
+			int width = resolution[0], height = resolution[1];
+
+			BufferedImage window = new BufferedImage(1280, 800, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = window.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+			g.scale(1280.0 / width, 800.0 / height);
+
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			Renderer renderer = new Renderer(map, textures, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(),
+					width, height, pool);
+
+			long render = 0, blit = 0;
+			for (int i = -frames; i < frames; ++i) {
+				renderer.setCamera(9, 9, Raycaster.TAU * i / frames, FOV);
+
+				long t0 = System.nanoTime();
+				renderer.render();
+				long t1 = System.nanoTime();
+				g.drawImage(image, 0, 0, null);
+				long t2 = System.nanoTime();
+
+				// the first lap only warms up
+				if (i >= 0) {
+					render += t1 - t0;
+					blit += t2 - t1;
+				}
+			}
+
+			double[] fps = new double[2];
+			for (int backings = 2; backings <= 3; ++backings) {
+				FramePipeline pipeline = new FramePipeline(backings, width, height,
+						backing -> new Renderer(map, textures, ((DataBufferInt) backing.getRaster().getDataBuffer()).getData(),
+								width, height, pool));
+				int[] produced = new int[1];
+
+				pipeline.start(r -> {
+					r.setCamera(9, 9, Raycaster.TAU * produced[0]++ / frames, FOV);
+					return r.render();
+				});
+
+				try {
+					long start = 0;
+					for (int i = -frames; i < frames; ++i) {
+						if (i == 0)
+							start = System.nanoTime();
+
+						g.drawImage(pipeline.next(), 0, 0, null);
+					}
+
+					fps[backings - 2] = frames / ((System.nanoTime() - start) * 1e-9);
+					pipeline.stop();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+
+			g.dispose();
+
+			System.out.printf("%-10s %10.3f %10.3f %12.0f %14.0f %14.0f%n", width + "x" + height, render * 1e-6 / frames,
+					blit * 1e-6 / frames, frames / ((render + blit) * 1e-9), fps[0], fps[1]);
+		}
+	}
+
+	private static void reuse(int frames) {
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		Map[] maps = { new Map("assets/map.txt"), generateMap(512, 42, 3) };
+		String[] names = { "24x24", "512x512" };
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames + ", 640x400");
+		System.out.printf("%-10s %-8s %12s %12s %12s %12s %10s%n", "map", "camera", "reads", "reuse reads",
+				"frame ms", "reuse ms", "differ %");
+
+		for (int m = 0; m < maps.length; ++m) {
+			double x = m == 0 ? 9 : 256.5;
+			double y = m == 0 ? 9 : 256.5;
+
+			for (String camera : new String[] { "turning", "still" }) {
+				// the first forgets its hits every frame, so it casts every column exactly
+				Renderer[] renderers = { new Renderer(maps[m], textures, 640, 400, pool), new Renderer(maps[m], textures, 640, 400, pool) };
+				renderers[0].setTemporalReuse(true);
+				renderers[1].setTemporalReuse(true);
+
+				long[] steps = new long[2];
+				long[] time = new long[2];
+				double worst = 0;
+
+				for (int i = -frames; i < frames; ++i) {
+					// the arrow keys turn 1.3 radians a second, at 60 frames a second
+					double direction = camera.equals("still") ? 1 : 1.3 / 60 * i;
+
+					for (int r = 0; r < 2; ++r) {
+						if (r == 0)
+							renderers[r].invalidate();
+						renderers[r].setCamera(x, y, direction, FOV);
+
+						long t0 = System.nanoTime();
+						renderers[r].render();
+						long elapsed = System.nanoTime() - t0;
+
+						// the first lap only warms up
+						if (i >= 0) {
+							time[r] += elapsed;
+							steps[r] += renderers[r].getSteps();
+						}
+					}
+
+					// a shifted column may be a column's angle off, which difference() allows for
+					worst = Math.max(worst, difference(renderers[0].getFramebuffer(), renderers[1].getFramebuffer(), 640, 400));
+				}
+
+				System.out.printf("%-10s %-8s %12d %12d %12.3f %12.3f %10.2f%n", names[m], camera, steps[0] / frames,
+						steps[1] / frames, time[0] * 1e-6 / frames, time[1] * 1e-6 / frames, worst * 100);
+			}
+		}
+	}
+
+	private static void stats(int frames) {
+		Map map = new Map("assets/map.txt");
+		FrameStats stats = new FrameStats(new OutputStreamWriter(System.out));
+		Renderer renderer = new Renderer(map, new Textures(), 640, 400, new RenderPool(RenderPool.defaultSize()));
+		renderer.setSprites(Sprites.scatter(map, 32, 8, 42));
+		renderer.setStats(stats);
+
+		for (int i = 1; i <= frames; ++i) {
+			renderer.setCamera(9, 9, Raycaster.TAU * i / frames, FOV);
+			renderer.render();
+
+			if (i % 60 == 0)
+				stats.publish();
+		}
+	}
+
+	// Every view is 320x200 and turns on its own spot. "one by one" draws the same views
+	// with separate full-pool renderers in turn; "identical" checks each split view against
+	// the matching separate frame.
+	private static void split(int frames) {
+		Map map = new Map("assets/map.txt");
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		double[][] spots = { { 9, 9 }, { 4.5, 20.5 }, { 20.5, 3.5 }, { 15.5, 20.5 } };
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames + ", 320x200 per view");
+		System.out.printf("%-6s %-8s %12s %14s %10s%n", "views", "layout", "split ms", "one by one ms", "identical");
+
+		for (int count = 1; count <= 4; ++count) {
+			int columns = (int) Math.ceil(Math.sqrt(count));
+			int rows = (count + columns - 1) / columns;
+			int width = 320 * columns;
+			int[] framebuffer = new int[width * 200 * rows];
+
+			SplitScreen split = new SplitScreen(map, textures, framebuffer, width, 200 * rows, count, pool);
+			Renderer[] single = new Renderer[count];
+			for (int i = 0; i < count; ++i)
+				single[i] = new Renderer(map, textures, 320, 200, pool);
+
+			long splitTime = 0, singleTime = 0;
+			boolean identical = true;
+
+			for (int f = -frames; f < frames; ++f) {
+				for (int i = 0; i < count; ++i) {
+					double direction = Raycaster.TAU * (f + frames) / frames + i;
+					split.setCamera(i, spots[i][0], spots[i][1], direction, FOV);
+					single[i].setCamera(spots[i][0], spots[i][1], direction, FOV);
+				}
+
+				long t0 = System.nanoTime();
+				split.render();
+				long t1 = System.nanoTime();
+				for (Renderer renderer : single)
+					renderer.render();
+				long t2 = System.nanoTime();
+
+				// the first lap only warms up
+				if (f >= 0) {
+					splitTime += t1 - t0;
+					singleTime += t2 - t1;
+				}
+
+				for (int i = 0; i < count && f == frames - 1; ++i) {
+					int offset = (i / columns) * 200 * width + (i % columns) * 320;
+					for (int y = 0; y < 200; ++y) {
+						identical &= Arrays.equals(framebuffer, offset + y * width, offset + y * width + 320,
+								single[i].getFramebuffer(), y * 320, y * 320 + 320);
+					}
+				}
+			}
+
+			System.out.printf("%-6d %-8s %12.3f %14.3f %10s%n", count, columns + "x" + rows, splitTime * 1e-6 / frames,
+					singleTime * 1e-6 / frames, identical ? "yes" : "NO");
+		}
+	}
+
+	// Renders a turning view the way the game does with -Draycaster.targetfps, building
+	// a new renderer whenever the scaler picks another size.
+	private static void scaling(int frames) {
+		Map map = new Map("assets/map.txt");
+		Textures textures = new Textures();
+		Sprites sprites = Sprites.scatter(map, 32, 8, 42);
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+
+		System.out.println("workers: " + pool.size() + ", frames per run: " + frames + ", widths 160 to 1280");
+		System.out.printf("%-10s %-8s %-10s %8s %12s %12s%n", "target fps", "camera", "settled", "changes", "last 60 ms",
+				"over budget");
+
+		// a still camera reuses its frames, which like in the game are left out of the scaler
+		for (double target : new double[] { 60, 250, 1000, 4000 }) {
+			for (boolean still : new boolean[] { false, true }) {
+				ResolutionScaler scaler = new ResolutionScaler(160, 1280, 320, target);
+				Renderer renderer = null;
+				int changes = 0, over = 0;
+				long recent = 0;
+
+				for (int i = 0; i < frames; ++i) {
+					if (renderer == null || renderer.getWidth() != scaler.getWidth()) {
+						renderer = new Renderer(map, textures, scaler.getWidth(), scaler.getHeight(), pool);
+						renderer.setSprites(sprites);
+						renderer.setTemporalReuse(still);
+					}
+
+					renderer.setCamera(9, 9, still ? 1 : Raycaster.TAU * i / frames, FOV);
+
+					long t0 = System.nanoTime();
+					boolean drawn = renderer.render();
+					long elapsed = System.nanoTime() - t0;
+
+					if (drawn && scaler.record(elapsed))
+						changes++;
+					if (elapsed > 1e9 / target)
+						over++;
+					if (i >= frames - 60)
+						recent += elapsed;
+				}
+
+				System.out.printf("%-10.0f %-8s %-10s %8d %12.3f %11.1f%%%n", target, still ? "still" : "turning",
+						scaler.getWidth() + "x" + scaler.getHeight(), changes, recent * 1e-6 / Math.min(60, frames),
+						100.0 * over / frames);
+			}
+		}
+	}
+
+	// Plays a log back through the game's own Player and renderer settings. The path
+	// and frames are the same on every run, so only the timings should differ.
+	private static void replay(String filename) {
+		InputLog log = InputLog.read(filename);
+		Map map = new Map("assets/map.txt");
+		Player player = new Player(map, log.getStartX(), log.getStartY(), log.getStartDirection());
+
+		FrameStats stats = new FrameStats(new OutputStreamWriter(System.out));
+		Renderer renderer = new Renderer(map, new Textures(), 320, 200, new RenderPool(RenderPool.defaultSize()));
+		renderer.setSprites(Sprites.scatter(map, 32, 8, 42));
+		renderer.setStats(stats);
+		renderer.setTemporalReuse(true);
+
+		// one frame per tick, drawn as fast as it can be instead of at the tick rate
+		for (int tick = 0; tick < log.getTicks(); ++tick) {
+			long t0 = System.nanoTime();
+			player.update(1.0 / log.getTickRate(), log.getKeys(tick));
+			stats.record(FrameStats.UPDATE, System.nanoTime() - t0);
+
+			renderer.setCamera(player.getX(), player.getY(), player.getDirection(), FOV);
+			renderer.render();
+
+			if ((tick + 1) % log.getTickRate() == 0)
+				stats.publish();
+		}
+
+		if (log.getTicks() % log.getTickRate() != 0)
+			stats.publish();
+
+		System.out.printf("%d ticks, final pose %.6f %.6f %.6f, last frame %08x%n", log.getTicks(), player.getX(),
+				player.getY(), player.getDirection(), Arrays.hashCode(renderer.getFramebuffer()));
+	}
+
+	private static void paged(int frames) {
+		try {
+			Path file = Files.createTempFile("world", ".tiles");
+			PagedMap.generate(file.toString(), 8192, 8192, 42);
+
+			long t0 = System.nanoTime();
+			PagedMap map = new PagedMap(file.toString(), 1 << 20);
+			long opened = System.nanoTime() - t0;
+			Textures textures = new Textures();
+
+			Renderer renderer = new Renderer(map, textures, 640, 400, new RenderPool(RenderPool.defaultSize()));
+
+			long total = 0, worst = 0;
+			for (int i = 0; i < frames; ++i) {
+				// straight down the diagonal, one frame per 1/frames of the way
+				double t = 9.5 + (8192 - 20) * (double) i / frames;
+				renderer.setCamera(t, t, -Math.PI / 4, FOV);
+
+				long start = System.nanoTime();
+				renderer.render();
+				long elapsed = System.nanoTime() - start;
+
+				total += elapsed;
+				worst = Math.max(worst, elapsed);
+			}
+
+			System.out.printf("opened in %.2f ms, %d frames at 640x400: mean %.3f ms, worst %.3f ms%n", opened * 1e-6,
+					frames, total * 1e-6 / frames, worst * 1e-6);
+			System.out.printf("%d chunk page-ins, %d chunks resident (%d KB)%n", map.getPageIns(),
+					map.getResidentChunks(), map.getResidentChunks() * PagedMap.CHUNK_SIZE * PagedMap.CHUNK_SIZE >> 10);
+
+			Files.delete(file);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private static void writeMap(Map grid, Path file) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file)) {
+			for (int r = 0; r < grid.getHeight(); ++r) {
+				for (int c = 0; c < grid.getWidth(); ++c)
+					writer.write((char) ('0' + grid.get(c, r)));
+
+				writer.write('\n');
+			}
+		}
+	}
+
+	private static boolean compare(int frames) {
+		Textures textures = new Textures();
+		RenderPool pool = new RenderPool(RenderPool.defaultSize());
+		Map[] maps = { new Map("assets/map.txt"), generateMap(64, 7, 3), generateHall(2048, 256) };
+		Random random = new Random(1);
+		Spans vector = Spans.get();
+		double worst = 0, worstFloor = 0;
+
+		if (vector.getClass() == Spans.class)
+			System.out.println("no vector kernels loaded, so only the scalar floor is drawn");
+
+		for (Map map : maps) {
+			Renderer reference = new Renderer(map, textures, 320, 200, pool);
+			Renderer fixed = new Renderer(map, textures, 320, 200, pool);
+			fixed.setFixedPoint(true);
+
+			// the double floor loop of Spans against the fixed-point one of the vector kernels
+			Renderer scalarFloor = new Renderer(map, textures, 320, 200, pool);
+			Renderer vectorFloor = new Renderer(map, textures, 320, 200, pool);
+			scalarFloor.setSpans(new Spans());
+			vectorFloor.setSpans(vector);
+
+			for (int i = 0; i < frames; ++i) {
+				double x, y;
+				do {
+					x = 1 + random.nextDouble() * (map.getWidth() - 2);
+					y = 1 + random.nextDouble() * (map.getHeight() - 2);
+				} while (map.get(x, y) != 0);
+
+				double direction = random.nextDouble() * Raycaster.TAU;
+
+				reference.setCamera(x, y, direction, FOV);
+				fixed.setCamera(x, y, direction, FOV);
+				Arrays.fill(reference.getFramebuffer(), 0);
+				Arrays.fill(fixed.getFramebuffer(), 0);
+				reference.drawWalls();
+				fixed.drawWalls();
+
+				double diff = difference(reference.getFramebuffer(), fixed.getFramebuffer(), 320, 200);
+				worst = Math.max(worst, diff);
+
+				if (diff > COMPARE_TOLERANCE)
+					System.out.printf("%dx%d map, pose %.4f %.4f %.4f: %.2f%% of pixels differ%n", map.getWidth(),
+							map.getHeight(), x, y, direction, diff * 100);
+
+				scalarFloor.setCamera(x, y, direction, FOV);
+				vectorFloor.setCamera(x, y, direction, FOV);
+				scalarFloor.render();
+				vectorFloor.render();
+
+				double floorDiff = difference(scalarFloor.getFramebuffer(), vectorFloor.getFramebuffer(), 320, 200);
+				worstFloor = Math.max(worstFloor, floorDiff);
+
+				if (floorDiff > COMPARE_TOLERANCE)
+					System.out.printf("%dx%d map, pose %.4f %.4f %.4f: %.2f%% of floor pixels differ%n", map.getWidth(),
+							map.getHeight(), x, y, direction, floorDiff * 100);
+			}
+		}
+
+		System.out.printf("worst frame: %.2f%% of pixels differ, tolerance %.2f%%%n", worst * 100,
+				COMPARE_TOLERANCE * 100);
+		System.out.printf("worst floor: %.2f%% of pixels differ with %s spans%n", worstFloor * 100, vector.getName());
+
+		return worst <= COMPARE_TOLERANCE && worstFloor <= COMPARE_TOLERANCE;
+	}
+
+	// Share of pixels with no identical reference pixel within one column or two rows,
+	// so texel boundaries that moved by a rounding step do not count as differences.
+	private static double difference(int[] reference, int[] image, int width, int height) {
+		int differing = 0;
+
+		for (int row = 0; row < height; ++row) {
+			for (int col = 0; col < width; ++col) {
+				int color = image[row * width + col];
+				boolean found = false;
+
+				for (int r = Math.max(0, row - 2); r <= Math.min(height - 1, row + 2) && !found; ++r) {
+					for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1) && !found; ++c)
+						found = reference[r * width + c] == color;
+				}
+
+				if (!found)
+					differing++;
+			}
+		}
+
+		return (double) differing / (width * height);
+	}
+
+	// Returns the mean milliseconds per frame of the floor, wall and minimap passes
+	// while the camera turns a full circle on the spot.
+	private static double[] run(Renderer renderer, double x, double y, int frames) {
+		long floor = 0, walls = 0, overlay = 0;
+
+		for (int i = 0; i < frames; ++i) {
+			renderer.setCamera(x, y, Raycaster.TAU * i / frames, FOV);
+
+			long t0 = System.nanoTime();
+			renderer.drawWalls();
+			long t1 = System.nanoTime();
+			renderer.drawFloorAndCeiling();
+			long t2 = System.nanoTime();
+			renderer.drawMinimap();
+			long t3 = System.nanoTime();
+
+			walls += t1 - t0;
+			floor += t2 - t1;
+			overlay += t3 - t2;
+		}
+
+		return new double[] { floor * 1e-6 / frames, walls * 1e-6 / frames, overlay * 1e-6 / frames };
+	}
+
+	// Walled square with pillars on roughly percent of its cells and a clear spot in
+	// the middle for the camera.
+	static Map generateMap(int size, long seed, int percent) {
+		Random random = new Random(seed);
+		int[] grid = new int[size * size];
+
+		for (int r = 0; r < size; ++r) {
+			for (int c = 0; c < size; ++c) {
+				boolean border = r == 0 || c == 0 || r == size - 1 || c == size - 1;
+				boolean center = Math.abs(r - size / 2) <= 1 && Math.abs(c - size / 2) <= 1;
+
+				if (border || (!center && random.nextInt(100) < percent))
+					grid[r * size + c] = 1 + random.nextInt(8);
+			}
+		}
+
+		return new Map(size, size, grid);
+	}
+
+	// Empty hall with walls only on its border, so rays take hundreds of steps.
+	static Map generateHall(int width, int height) {
+		int[] grid = new int[width * height];
+
+		for (int r = 0; r < height; ++r) {
+			for (int c = 0; c < width; ++c) {
+				if (r == 0 || c == 0 || r == height - 1 || c == width - 1)
+					grid[r * width + c] = 1 + (r + c) % 8;
+			}
+		}
+
+		return new Map(width, height, grid);
+	}
+}
@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Frame time histograms for each phase of a frame. Samples go into fixed buckets, so
+// recording one costs an atomic increment and never allocates; publish() turns the
+// samples since the last call into p50/p99/max for the overlay and the CSV export.
+public class FrameStats {
+	public final static int UPDATE = 0, FLOOR = 1, WALLS = 2, SPRITES = 3, PALETTE = 4, MINIMAP = 5, PRESENT = 6;
+	private final static String[] NAMES = { "update", "floor", "walls", "sprites", "palette", "minimap", "present" };
+
+	// p50, p99 and max in milliseconds, and the sample count, per phase
+	private final static int P50 = 0, P99 = 1, MAX = 2, COUNT = 3;
+
+	private final Histogram[] histograms = new Histogram[NAMES.length];
+	private final double[][] summary = new double[NAMES.length][4];
+	private final String[] lines = new String[NAMES.length];
+
+	private final long start = System.nanoTime();
+	private final Writer csv;
+
+	// csv may be null, otherwise it gets a header now and a row per phase on every publish()
+	public FrameStats(Writer csv) {
+		this.csv = csv;
+
+		for (int i = 0; i < histograms.length; ++i) {
+			histograms[i] = new Histogram();
+			lines[i] = NAMES[i];
+		}
+
+		if (csv != null)
+			write("seconds,phase,count,p50_ms,p99_ms,max_ms\n");
+	}
+
+	public void record(int phase, long nanos) {
+		histograms[phase].record(nanos);
+	}
+
+	// Summarises and clears the samples recorded since the last call. Only one thread
+	// may publish and read the summary.
+	public void publish() {
+		double seconds = (System.nanoTime() - start) * 1e-9;
+
+		for (int i = 0; i < histograms.length; ++i) {
+			Histogram histogram = histograms[i];
+
+			summary[i][COUNT] = histogram.count();
+			summary[i][P50] = histogram.percentile(0.50) * 1e-6;
+			summary[i][P99] = histogram.percentile(0.99) * 1e-6;
+			summary[i][MAX] = histogram.max() * 1e-6;
+			histogram.reset();
+
+			lines[i] = String.format("%-8s p50 %6.2f  p99 %6.2f  max %6.2f ms", NAMES[i], summary[i][P50],
+					summary[i][P99], summary[i][MAX]);
+
+			if (csv != null)
+				write(String.format("%.3f,%s,%d,%.4f,%.4f,%.4f\n", seconds, NAMES[i], (long) summary[i][COUNT],
+						summary[i][P50], summary[i][P99], summary[i][MAX]));
+		}
+
+		if (csv != null) {
+			try {
+				csv.flush();
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+
+	public int phases() {
+		return NAMES.length;
+	}
+
+	// One overlay line for a phase, from the last publish().
+	public String describe(int phase) {
+		return lines[phase];
+	}
+
+	private void write(String text) {
+		try {
+			csv.write(text);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	// Log-linear buckets of microseconds: exact below 64, then 32 buckets per power of two,
+	// so every bucket is within about 3% of the values in it.
+	static class Histogram {
+		private final static int SUB_BITS = 5;
+		private final static int SUB = 1 << SUB_BITS;
+
+		// up to 2^40 microseconds, far beyond any frame
+		private final static int BUCKETS = (40 - SUB_BITS + 1) * SUB;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		void record(long nanos) {
+			long micros = Math.max(0, nanos / 1000);
+
+			counts.incrementAndGet(bucket(micros));
+			total.incrementAndGet();
+
+			long seen;
+			while (nanos > (seen = max.get()) && !max.compareAndSet(seen, nanos))
+				;
+		}
+
+		long count() {
+			return total.get();
+		}
+
+		long max() {
+			return max.get();
+		}
+
+		// Upper edge in nanoseconds of the bucket holding the given share of samples.
+		long percentile(double share) {
+			long n = total.get();
+			if (n == 0)
+				return 0;
+
+			long rank = (long) Math.ceil(share * n);
+			long seen = 0;
+
+			for (int i = 0; i < BUCKETS; ++i) {
+				seen += counts.get(i);
+				if (seen >= rank)
+					return Math.min(max.get(), upperEdge(i) * 1000);
+			}
+
+			return max.get();
+		}
+
+		void reset() {
+			for (int i = 0; i < BUCKETS; ++i)
+				counts.set(i, 0);
+
+			total.set(0);
+			max.set(0);
+		}
+
+		static int bucket(long micros) {
+			if (micros < 2 * SUB)
+				return (int) micros;
+
+			int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+			return Math.min(BUCKETS - 1, (shift + 1) * SUB + (int) (micros >> shift) - SUB);
+		}
+
+		static long upperEdge(int bucket) {
+			if (bucket < 2 * SUB)
+				return bucket + 1;
+
+			int shift = bucket / SUB - 1;
+			return (long) (bucket % SUB + SUB + 1) << shift;
+		}
+	}
+}
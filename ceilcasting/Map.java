@@ -1,33 +1,211 @@
-import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
+// A map file holds the wall grid, optionally followed by a floor grid and then a
+// ceiling grid of the same size, each after a blank line. Floor and ceiling cells
+// name a texture like walls do, and 0 keeps the default one.
 public class Map {
+	public final static int DEFAULT_FLOOR = 3, DEFAULT_CEILING = 5;
+
+	private final static String[] BLOCKS = { "wall", "floor", "ceiling" };
+
 	protected int []grid;
 	protected int width;
 	protected int height;
+	protected byte[] clearance;
+
+	// texture indices per cell, null when the file has no such grid
+	protected byte[] floors;
+	protected byte[] ceilings;
+
+	// the number of rows before each run of blank lines, and the line that run starts on
+	private int[] blankRows, blankLines;
+	private int blanks;
 
 	public Map(String filename) {
-		try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-			ArrayList<Integer> tempGrid = new ArrayList<Integer>();			
-			String line;
-			while ((line = br.readLine()) != null) {
-				String []cells = line.split("");
-				this.width = Math.max(this.width, cells.length);
-
-				for (String cell : cells) {
-					tempGrid.add(Integer.parseInt(cell));
+		// cells go straight from the character buffer into a growing grid, one row at a
+		// time. Which blank lines part the floor and ceiling grids from the walls is only
+		// known once every row has been read, so they are noted until then.
+		grid = new int[4096];
+		int rows = 0;
+		int line = 1;
+
+		try (Reader reader = new FileReader(filename)) {
+			char[] buffer = new char[1 << 16];
+			int size = 0;
+			int column = 0;
+			int blankLine = 0;
+			int read;
+
+			while ((read = reader.read(buffer)) != -1) {
+				for (int i = 0; i < read; ++i) {
+					char ch = buffer[i];
+
+					if (ch == '\n') {
+						if (column > 0) {
+							endRow(filename, line, rows, column);
+							rows++;
+						} else if (rows > 0 && blankLine == 0) {
+							blankLine = line;
+						}
+
+						line++;
+						column = 0;
+						continue;
+					}
+
+					if (ch == '\r')
+						continue;
+
+					if (blankLine != 0) {
+						addBlank(rows, blankLine);
+						blankLine = 0;
+					}
+
+					int cell = parseCell(ch);
+					if (cell < 0)
+						throw malformed(filename, line, "unexpected '" + ch + "' in column " + (column + 1));
+					if (cell > Textures.COUNT)
+						throw malformed(filename, line, "texture " + cell + " in column " + (column + 1)
+								+ ", there are only " + Textures.COUNT);
+
+					if (size == grid.length)
+						grid = Arrays.copyOf(grid, size * 2);
+
+					grid[size++] = cell;
+					column++;
 				}
-				this.height++;
 			}
 
-			grid = tempGrid.stream()
-				.mapToInt(Integer::intValue)
-				.toArray();
-		} catch (Exception ex) {
-			ex.printStackTrace();
+			if (column > 0) {
+				endRow(filename, line, rows, column);
+				rows++;
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException("could not read " + filename, ex);
+		}
+
+		if (rows == 0)
+			throw malformed(filename, 1, "no rows");
+
+		int blocks = layout(filename, rows, line);
+		height = rows / blocks;
+		int cells = width * height;
+
+		if (blocks >= 2)
+			floors = textureIndices(grid, cells, cells, DEFAULT_FLOOR);
+		if (blocks >= 3)
+			ceilings = textureIndices(grid, 2 * cells, cells, DEFAULT_CEILING);
+
+		grid = Arrays.copyOf(grid, cells);
+		blankRows = blankLines = null;
+	}
+
+	// for subclasses that keep their cells somewhere other than grid
+	protected Map() {
+	}
+
+	public Map(int width, int height, int[] grid) {
+		if (grid.length != width * height)
+			throw new IllegalArgumentException("grid does not hold " + width + "x" + height + " cells");
+
+		this.width = width;
+		this.height = height;
+		this.grid = grid;
+	}
+
+	private void endRow(String filename, int line, int rows, int column) {
+		if (rows == 0)
+			width = column;
+		else if (column != width)
+			throw malformed(filename, line, "row has " + column + " cells, expected " + width);
+	}
+
+	private void addBlank(int rows, int line) {
+		if (blankRows == null) {
+			blankRows = new int[4];
+			blankLines = new int[4];
+		} else if (blanks == blankRows.length) {
+			blankRows = Arrays.copyOf(blankRows, blanks * 2);
+			blankLines = Arrays.copyOf(blankLines, blanks * 2);
+		}
+
+		blankRows[blanks] = rows;
+		blankLines[blanks++] = line;
+	}
+
+	// Returns how many grids of equal height the rows make up, 1 to 3. A blank line only
+	// parts two grids where the wall grid, and every grid after it, has as many rows as
+	// the walls do; any other one is a blank line inside a grid.
+	private int layout(String filename, int rows, int lastLine) {
+		if (blanks == 0)
+			return 1;
+
+		for (int blocks = BLOCKS.length; blocks >= 2; --blocks) {
+			if (rows % blocks != 0 || !separated(rows / blocks, blocks))
+				continue;
+
+			// every grid is whole, so the first blank line elsewhere is a stray one
+			int height = rows / blocks;
+			for (int b = 0; b < blanks; ++b) {
+				if (blankRows[b] % height != 0)
+					throw malformed(filename, blankLines[b], blankRows[b] < height ? "blank line inside the map"
+							: "blank line inside the " + BLOCKS[blankRows[b] / height] + " grid");
+			}
+
+			return blocks;
+		}
+
+		// No split fits, so the walls end at the first blank line and a later grid has
+		// the wrong size. One longer than the walls means that blank line was a stray.
+		int height = blankRows[0];
+
+		for (int b = 0; b < blanks; ++b) {
+			int end = b + 1 < blanks ? blankRows[b + 1] : rows;
+
+			if (b + 1 >= BLOCKS.length)
+				throw malformed(filename, blankLines[b], "nothing may follow the ceiling grid");
+			if (end - blankRows[b] > height)
+				throw malformed(filename, blankLines[0], "blank line inside the map");
+			if (end - blankRows[b] < height)
+				throw malformed(filename, b + 1 < blanks ? blankLines[b + 1] : lastLine, BLOCKS[b + 1] + " grid has "
+						+ (end - blankRows[b]) + " rows, expected " + height);
 		}
+
+		throw malformed(filename, blankLines[0], "blank line inside the map");
+	}
+
+	// whether there is a blank line after each of the first blocks - 1 grids
+	private boolean separated(int height, int blocks) {
+		for (int k = 1, b = 0; k < blocks; ++k) {
+			while (b < blanks && blankRows[b] < k * height)
+				b++;
+			if (b == blanks || blankRows[b] != k * height)
+				return false;
+		}
+
+		return true;
+	}
+
+	private static byte[] textureIndices(int[] cells, int from, int count, int fallback) {
+		byte[] textures = new byte[count];
+
+		for (int i = 0; i < count; ++i)
+			textures[i] = (byte) (cells[from + i] == 0 ? fallback : cells[from + i] - 1);
+
+		return textures;
+	}
+
+	private static IllegalArgumentException malformed(String filename, int line, String message) {
+		return new IllegalArgumentException(filename + ":" + line + ": " + message);
+	}
+
+	private static int parseCell(char ch) {
+		return ch >= '0' && ch <= '9' ? ch - '0' : -1;
 	}
 
 	public int getWidth() {
@@ -47,4 +225,69 @@ public class Map {
 		
 		return this.grid[yi * width + xi];
 	}
+
+	// Texture of the floor under a cell, the default one outside the map.
+	public int getFloor(int x, int y) {
+		if (floors == null || x < 0 || x >= width || y < 0 || y >= height)
+			return DEFAULT_FLOOR;
+
+		return floors[y * width + x];
+	}
+
+	public int getCeiling(int x, int y) {
+		if (ceilings == null || x < 0 || x >= width || y < 0 || y >= height)
+			return DEFAULT_CEILING;
+
+		return ceilings[y * width + x];
+	}
+
+	// Chebyshev distance from each cell to the nearest wall, capped at 255, with the
+	// outside of the map counting as wall. Every cell closer than that is empty.
+	public void buildClearance() {
+		byte[] field = new byte[width * height];
+
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				int d = 0;
+
+				if (grid[y * width + x] == 0) {
+					d = Math.min(clearance(field, x - 1, y), clearance(field, x - 1, y - 1));
+					d = Math.min(d, Math.min(clearance(field, x, y - 1), clearance(field, x + 1, y - 1)));
+					d = Math.min(255, d + 1);
+				}
+
+				field[y * width + x] = (byte) d;
+			}
+		}
+
+		for (int y = height - 1; y >= 0; --y) {
+			for (int x = width - 1; x >= 0; --x) {
+				int d = field[y * width + x] & 0xFF;
+
+				if (d > 1) {
+					int n = Math.min(clearance(field, x + 1, y), clearance(field, x + 1, y + 1));
+					n = Math.min(n, Math.min(clearance(field, x, y + 1), clearance(field, x - 1, y + 1)));
+					field[y * width + x] = (byte) Math.min(d, n + 1);
+				}
+			}
+		}
+
+		clearance = field;
+	}
+
+	private int clearance(byte[] field, int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			return 0;
+
+		return field[y * width + x] & 0xFF;
+	}
+
+	public boolean hasClearance() {
+		return clearance != null;
+	}
+
+	// Only valid inside the map and after buildClearance().
+	public int getClearance(int x, int y) {
+		return clearance[y * width + x] & 0xFF;
+	}
 }
\ No newline at end of file
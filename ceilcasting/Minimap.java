@@ -0,0 +1,105 @@
+import java.awt.Color;
+
+import java.util.Arrays;
+
+// The map drawn once into a cached layer of 64x64 pixel tiles, one pixel per scale x
+// scale block of cells, and copied into the corner of each frame a row at a time. A
+// map bigger than the corner scrolls with the player. Tiles are only built once the
+// view reaches them, so a paged map is never read as a whole.
+public class Minimap {
+	private final static int WHITE = new Color(255, 255, 255).getRGB();
+	private final static int BLACK = new Color(0, 0, 0).getRGB();
+	private final static int RED = new Color(255, 0, 0).getRGB();
+
+	private final static int TILE_BITS = 6;
+	private final static int TILE_SIZE = 1 << TILE_BITS;
+	private final static int TILE_MASK = TILE_SIZE - 1;
+
+	private final Map map;
+	private final int scale;
+	private final int layerWidth, layerHeight;
+	private final int tilesX;
+	private final int[][] tiles;
+
+	// -Draycaster.minimapscale=N shrinks every N x N cells into one pixel
+	public static int defaultScale() {
+		return Math.max(1, Integer.getInteger("raycaster.minimapscale", 1));
+	}
+
+	public Minimap(Map map, int scale) {
+		this.map = map;
+		this.scale = scale;
+
+		layerWidth = (map.getWidth() + scale - 1) / scale;
+		layerHeight = (map.getHeight() + scale - 1) / scale;
+		tilesX = (layerWidth + TILE_MASK) >> TILE_BITS;
+		tiles = new int[tilesX * ((layerHeight + TILE_MASK) >> TILE_BITS)][];
+	}
+
+	// Throws the layer away, for when cells of the map have changed.
+	public synchronized void invalidate() {
+		Arrays.fill(tiles, null);
+	}
+
+	// Copies up to width x height pixels of the layer, centred on the player where the
+	// map allows, to offset in a framebuffer whose rows are stride pixels apart.
+	public void draw(int[] framebuffer, int offset, int stride, int width, int height, double playerX,
+			double playerY) {
+		width = Math.min(width, layerWidth);
+		height = Math.min(height, layerHeight);
+
+		int px = (int) playerX / scale;
+		int py = (int) playerY / scale;
+		int left = Math.max(0, Math.min(layerWidth - width, px - width / 2));
+		int top = Math.max(0, Math.min(layerHeight - height, py - height / 2));
+
+		for (int r = 0; r < height; ++r) {
+			int y = top + r;
+			int x = left;
+			int end = left + width;
+
+			while (x < end) {
+				int count = Math.min(end, (x | TILE_MASK) + 1) - x;
+
+				System.arraycopy(tile(x >> TILE_BITS, y >> TILE_BITS), ((y & TILE_MASK) << TILE_BITS) | (x & TILE_MASK),
+						framebuffer, offset + r * stride + x - left, count);
+				x += count;
+			}
+		}
+
+		if (px >= left && px < left + width && py >= top && py < top + height)
+			framebuffer[offset + (py - top) * stride + px - left] = RED;
+	}
+
+	private synchronized int[] tile(int tx, int ty) {
+		int[] tile = tiles[ty * tilesX + tx];
+		if (tile == null) {
+			tile = build(tx, ty);
+			tiles[ty * tilesX + tx] = tile;
+		}
+
+		return tile;
+	}
+
+	// A block shows as wall if any of its cells is one, so thin walls survive the scale.
+	private int[] build(int tx, int ty) {
+		int[] tile = new int[TILE_SIZE * TILE_SIZE];
+
+		for (int y = 0; y < TILE_SIZE; ++y) {
+			for (int x = 0; x < TILE_SIZE; ++x) {
+				int cellX = ((tx << TILE_BITS) + x) * scale;
+				int cellY = ((ty << TILE_BITS) + y) * scale;
+				boolean wall = false;
+
+				for (int cy = cellY; cy < cellY + scale && !wall; ++cy) {
+					for (int cx = cellX; cx < cellX + scale && !wall; ++cx)
+						wall = map.get(cx, cy) != 0;
+				}
+
+				tile[(y << TILE_BITS) | x] = wall ? WHITE : BLACK;
+			}
+		}
+
+		return tile;
+	}
+}
@@ -0,0 +1,1046 @@
+import java.util.Arrays;
+
+public class Renderer {
+	// -Draycaster.dda=fixed selects the fixed-point traversal, -Draycaster.fixedbits its precision
+	public final static int FIXED_BITS = Math.max(8, Math.min(24, Integer.getInteger("raycaster.fixedbits", 16)));
+	private final static long FIXED_ONE = 1L << FIXED_BITS;
+	private final static long FIXED_FAR = 1L << (62 - FIXED_BITS);
+
+	private final int VIRTUAL_WIDTH, VIRTUAL_HEIGHT;
+
+	private final int[] framebuffer;
+
+	// where the view's first pixel sits in the framebuffer and how far apart its rows are
+	private final int OFFSET, STRIDE;
+
+	private final Map map;
+
+	private double playerX;
+	private double playerY;
+	private double playerFov;
+	private double playerDirection;
+
+	private final int TEXTURE_WIDTH = Textures.WIDTH, TEXTURE_HEIGHT = Textures.HEIGHT;
+	private final Textures textures;
+	private final int[][][] mipmaps;
+	private final int[][][] columnMipmaps;
+
+	private final RayTable rays;
+	private boolean fixedPoint = "fixed".equals(System.getProperty("raycaster.dda"));
+	private boolean mipmapping = Boolean.parseBoolean(System.getProperty("raycaster.mipmaps", "true"));
+	private boolean columnMajor = true;
+
+	// what the traversal hit in each column; a texture of -1 means the ray left the map
+	private final int[] columnTexture;
+	private final int[] columnSide;
+	private final int[] columnTexX;
+	private final int[] columnHeight;
+	private final int[] columnSteps;
+
+	// distance along each column's ray to its wall, kept so a rotated view can reuse the hit
+	private final double[] columnDistance;
+
+	// The camera the column arrays were cast for. With temporal reuse on, a view that only
+	// turned shifts them and casts just the columns that came into view, and a still one
+	// reuses the whole frame.
+	private boolean temporalReuse;
+	private double castX = Double.NaN, castY, castDirection, castFov;
+	private boolean castFixedPoint;
+	private boolean frameDrawn;
+
+	// columns the next wall pass casts, the rest were shifted from the last one
+	private int castFrom, castTo;
+
+	// perpendicular distance to the wall in each column, infinite where the ray left the map
+	private final double[] columnDepth;
+
+	// farthest wall over each run of 16 columns, so hidden sprites are culled without a column scan
+	private final static int DEPTH_TILE_BITS = 4;
+	private final double[] tileDepth;
+
+	private Minimap minimap;
+	private Sprites sprites;
+	private FrameStats stats;
+
+	// Set for the 8-bit mode: the passes write palette indices into pixels, a byte per
+	// pixel, and drawPalette() looks them up into the framebuffer.
+	private Palette palette;
+	private byte[] pixels;
+
+	// distance shading, see Lighting; without it wall sides facing north and south and
+	// the floor and ceiling are drawn at half brightness
+	private Lighting lighting;
+
+	// sprites that survived culling this frame; the order keys hold the depth above the slot
+	private long[] spriteOrder = new long[64];
+	private int[] spriteIndex = new int[64];
+	private double[] spriteLeft = new double[64];
+	private double[] spriteWidth = new double[64];
+	private double[] spriteDepth = new double[64];
+	private int[] spriteHeight = new int[64];
+	private int visibleSprites;
+
+	private final RenderPool pool;
+	private final RenderPool.Strip wallStrip = this::drawWallStrip;
+	private final RenderPool.Strip spriteStrip = this::drawSpriteStrip;
+	private final RenderPool.Strip paletteStrip = this::drawPaletteStrip;
+	private final RenderPool.Strip floorStrip = this::drawFloorStrip;
+
+	// the floor row loop, on the Vector API when that is available
+	private Spans spans = Spans.get();
+
+	// distance along the floor seen by each row below the horizon
+	private final double[] rowDistance;
+
+	// the rows the last wall pass drew in each column, drawBegin up to drawEnd, which the
+	// floor pass leaves alone unless floorGaps is off
+	private final int[] columnTop;
+	private final int[] columnBottom;
+	private boolean floorGaps = true;
+
+	// the first floor row where no column covers the floor or its mirrored ceiling
+	private int openFrom;
+
+	public Renderer(Map map, Textures textures, int width, int height, RenderPool pool) {
+		this(map, textures, new int[width * height], width, height, pool);
+	}
+
+	// Renders into an existing width * height buffer, e.g. the raster of a BufferedImage.
+	public Renderer(Map map, Textures textures, int[] framebuffer, int width, int height, RenderPool pool) {
+		this(map, textures, framebuffer, 0, width, width, height, pool);
+	}
+
+	// Renders into a width x height viewport of a bigger buffer, e.g. one view of a split screen.
+	public Renderer(Map map, Textures textures, int[] framebuffer, int offset, int stride, int width, int height,
+			RenderPool pool) {
+		if (stride < width || offset < 0 || framebuffer.length < offset + (long) stride * (height - 1) + width)
+			throw new IllegalArgumentException("framebuffer has no " + width + "x" + height + " viewport at " + offset);
+
+		this.map = map;
+		this.minimap = new Minimap(map, Minimap.defaultScale());
+		this.textures = textures;
+		this.mipmaps = new int[Textures.LEVELS][][];
+		this.columnMipmaps = new int[Textures.LEVELS][][];
+		for (int level = 0; level < Textures.LEVELS; ++level) {
+			mipmaps[level] = textures.getMipmap(level);
+			columnMipmaps[level] = textures.getColumns(level);
+		}
+		this.framebuffer = framebuffer;
+		this.OFFSET = offset;
+		this.STRIDE = stride;
+		this.VIRTUAL_WIDTH = width;
+		this.VIRTUAL_HEIGHT = height;
+		this.pool = pool;
+		this.rays = new RayTable(width);
+
+		columnTexture = new int[width];
+		columnSide = new int[width];
+		columnTexX = new int[width];
+		columnHeight = new int[width];
+		columnSteps = new int[width];
+		columnDistance = new double[width];
+		columnDepth = new double[width];
+		tileDepth = new double[((width - 1) >> DEPTH_TILE_BITS) + 1];
+
+		// nothing is covered until the first wall pass
+		columnTop = new int[width];
+		columnBottom = new int[width];
+		Arrays.fill(columnTop, height / 2);
+		Arrays.fill(columnBottom, height / 2);
+
+		double cameraHeight = 0.5 * height;
+		rowDistance = new double[height - height / 2];
+
+		// the horizon row itself would be infinitely far, so it repeats the next one
+		for (int p = 0; p < rowDistance.length; ++p)
+			rowDistance[p] = cameraHeight / Math.max(1, p);
+	}
+
+	public int[] getFramebuffer() {
+		return framebuffer;
+	}
+
+	public int getWidth() {
+		return VIRTUAL_WIDTH;
+	}
+
+	public int getHeight() {
+		return VIRTUAL_HEIGHT;
+	}
+
+	public void setCamera(double x, double y, double direction, double fov) {
+		playerX = x;
+		playerY = y;
+		playerDirection = direction;
+		playerFov = fov;
+
+		rays.update(fov, direction);
+	}
+
+	// Shares one cached minimap layer between renderers of the same map, or hides it with null.
+	public void setMinimap(Minimap minimap) {
+		this.minimap = minimap;
+	}
+
+	// Switches to the 8-bit mode with a palette built from this renderer's textures, or
+	// back to drawing colors straight into the framebuffer with null.
+	public void setPalette(Palette palette) {
+		this.palette = palette;
+		pixels = palette == null ? null : new byte[VIRTUAL_WIDTH * VIRTUAL_HEIGHT];
+
+		checkLighting();
+		invalidate();
+	}
+
+	// Darkens surfaces with distance through the colormaps of lighting, or turns that off with null.
+	public void setLighting(Lighting lighting) {
+		this.lighting = lighting;
+		checkLighting();
+		invalidate();
+	}
+
+	private void checkLighting() {
+		if (lighting != null && lighting.getPalette() != palette)
+			throw new IllegalStateException("lighting and renderer use different palettes");
+	}
+
+	public Spans getSpans() {
+		return spans;
+	}
+
+	public void setSpans(Spans spans) {
+		this.spans = spans;
+	}
+
+	public void setSprites(Sprites sprites) {
+		this.sprites = sprites;
+		frameDrawn = false;
+	}
+
+	// render() times each of its passes into stats when set.
+	public void setStats(FrameStats stats) {
+		this.stats = stats;
+	}
+
+	public boolean isTemporalReuse() {
+		return temporalReuse;
+	}
+
+	// Reuses ray hits across frames while the camera stays put. A turn reuses the hits of
+	// the last frame shifted by whole columns, so those columns may be up to one column's
+	// angle off until they are cast again.
+	public void setTemporalReuse(boolean temporalReuse) {
+		this.temporalReuse = temporalReuse;
+		invalidate();
+	}
+
+	// Forgets the last frame, e.g. after drawing over the framebuffer or moving sprites.
+	public void invalidate() {
+		castX = Double.NaN;
+		frameDrawn = false;
+	}
+
+	public int getVisibleSprites() {
+		return visibleSprites;
+	}
+
+	// Draws a frame of the current camera. Returns false when the framebuffer already
+	// held it, so nothing was drawn.
+	public boolean render() {
+		// the framebuffer still holds this exact frame
+		if (frameDrawn && sameCamera() && playerDirection == castDirection) {
+			Arrays.fill(columnSteps, 0);
+			return false;
+		}
+
+		// the floor goes in the gaps the walls leave, so it comes after them
+		long t0 = System.nanoTime();
+		if (!floorGaps)
+			drawFloorAndCeiling();
+		long t1 = System.nanoTime();
+		drawWalls();
+		long t2 = System.nanoTime();
+		if (floorGaps)
+			drawFloorAndCeiling();
+		long t3 = System.nanoTime();
+		drawSprites();
+		long t4 = System.nanoTime();
+		if (palette != null)
+			drawPalette();
+		long t5 = System.nanoTime();
+		drawMinimap();
+		long t6 = System.nanoTime();
+
+		if (stats != null) {
+			stats.record(FrameStats.FLOOR, (t1 - t0) + (t3 - t2));
+			stats.record(FrameStats.WALLS, t2 - t1);
+			stats.record(FrameStats.SPRITES, t4 - t3);
+			if (palette != null)
+				stats.record(FrameStats.PALETTE, t5 - t4);
+			stats.record(FrameStats.MINIMAP, t6 - t5);
+		}
+
+		frameDrawn = temporalReuse;
+		return true;
+	}
+
+	public void drawWalls() {
+		planCasts();
+		frameDrawn = false;
+
+		// every column only writes its own pixels, so strips need no locking
+		pool.run(VIRTUAL_WIDTH, wallStrip);
+
+		castX = playerX;
+		castY = playerY;
+		castDirection = playerDirection;
+		castFov = playerFov;
+		castFixedPoint = fixedPoint;
+	}
+
+	private boolean sameCamera() {
+		return temporalReuse && playerX == castX && playerY == castY && playerFov == castFov
+				&& fixedPoint == castFixedPoint;
+	}
+
+	// Works out which columns the next wall pass has to cast, shifting the hits of the
+	// last one into place when only the direction changed. Returns how many to cast.
+	private int planCasts() {
+		castFrom = 0;
+		castTo = VIRTUAL_WIDTH;
+
+		if (!sameCamera())
+			return VIRTUAL_WIDTH;
+
+		// The direction stays exact, only the shift is counted in whole columns of each
+		// direction rounded on its own. So a reused hit is at most a column's angle off,
+		// however many frames it is carried along. Across the 0/TAU wrap the shift is
+		// more than a frame wide and everything is cast.
+		double step = playerFov / (VIRTUAL_WIDTH - 1);
+		double shift = Math.rint(playerDirection / step) - Math.rint(castDirection / step);
+
+		if (Math.abs(shift) >= VIRTUAL_WIDTH)
+			return VIRTUAL_WIDTH;
+
+		int k = (int) shift;
+
+		// turning left moves everything right by k columns, and k new ones appear on the left
+		if (k >= 0) {
+			shiftColumns(0, k, VIRTUAL_WIDTH - k);
+			castTo = k;
+		} else {
+			shiftColumns(-k, 0, VIRTUAL_WIDTH + k);
+			castFrom = VIRTUAL_WIDTH + k;
+		}
+
+		return castTo - castFrom;
+	}
+
+	private void shiftColumns(int from, int to, int count) {
+		if (from == to)
+			return;
+
+		System.arraycopy(columnTexture, from, columnTexture, to, count);
+		System.arraycopy(columnSide, from, columnSide, to, count);
+		System.arraycopy(columnTexX, from, columnTexX, to, count);
+		System.arraycopy(columnDistance, from, columnDistance, to, count);
+	}
+
+	public boolean isFixedPoint() {
+		return fixedPoint;
+	}
+
+	public void setFixedPoint(boolean fixedPoint) {
+		this.fixedPoint = fixedPoint;
+	}
+
+	public boolean isFloorGaps() {
+		return floorGaps;
+	}
+
+	// With floorGaps on, drawFloorAndCeiling only casts the rows the last drawWalls left
+	// uncovered and has to come after it. Off, it casts every row and walls go on top.
+	public void setFloorGaps(boolean floorGaps) {
+		this.floorGaps = floorGaps;
+	}
+
+	// Floor and ceiling pixels the next floor pass casts, given the last wall pass.
+	public long getFloorPixels() {
+		if (!floorGaps)
+			return 2L * VIRTUAL_WIDTH * (VIRTUAL_HEIGHT - VIRTUAL_HEIGHT / 2);
+
+		long pixels = 0;
+
+		for (int col = 0; col < VIRTUAL_WIDTH; ++col)
+			pixels += (VIRTUAL_HEIGHT - columnBottom[col]) + Math.min(VIRTUAL_HEIGHT - VIRTUAL_HEIGHT / 2, columnTop[col]);
+
+		return pixels;
+	}
+
+	public boolean isMipmapping() {
+		return mipmapping;
+	}
+
+	public void setMipmapping(boolean mipmapping) {
+		this.mipmapping = mipmapping;
+	}
+
+	public boolean isColumnMajor() {
+		return columnMajor;
+	}
+
+	// Wall slices read the transposed textures unless this is turned off.
+	public void setColumnMajor(boolean columnMajor) {
+		this.columnMajor = columnMajor;
+	}
+
+	// Map reads the last wall pass made, summed over all columns.
+	public long getSteps() {
+		long steps = 0;
+
+		for (int col = 0; col < VIRTUAL_WIDTH; ++col)
+			steps += columnSteps[col];
+
+		return steps;
+	}
+
+	private void drawWallStrip(int from, int to) {
+		for (int col = from; col < to; ++col) {
+			if (col < castFrom || col >= castTo)
+				reproject(col);
+			else if (fixedPoint)
+				castFixed(col);
+			else
+				castDouble(col);
+
+			if (columnTexture[col] >= 0) {
+				drawSlice(col);
+			} else {
+				columnTop[col] = VIRTUAL_HEIGHT / 2;
+				columnBottom[col] = VIRTUAL_HEIGHT / 2;
+			}
+		}
+	}
+
+	// Turns a hit shifted in from another column into this column's height and depth,
+	// with the same arithmetic the cast would have used.
+	private void reproject(int col) {
+		columnSteps[col] = 0;
+
+		if (columnTexture[col] < 0) {
+			columnDepth[col] = Double.POSITIVE_INFINITY;
+			return;
+		}
+
+		if (fixedPoint) {
+			long d = (long) (columnDistance[col] * FIXED_ONE);
+			long p = Math.max(1, (d * (long) (rays.getFisheye(col) * FIXED_ONE)) >> FIXED_BITS);
+
+			columnHeight[col] = (int) Math.min(Integer.MAX_VALUE, (long) (rays.getDistToProjection() * FIXED_ONE) / p);
+			columnDepth[col] = (double) p / FIXED_ONE;
+		} else {
+			double p = columnDistance[col] * rays.getFisheye(col);
+
+			columnHeight[col] = (int) (rays.getDistToProjection() / p);
+			columnDepth[col] = p;
+		}
+	}
+
+	private void castDouble(int col) {
+		double distToProjection = rays.getDistToProjection();
+
+		double rayDirX = rays.getDirX(col);
+		double rayDirY = rays.getDirY(col);
+
+		int mapX = (int) playerX;
+		int mapY = (int) playerY;
+
+		double sideDistX;
+		double sideDistY;
+
+		double deltaDistX = Math.abs(1.0 / rayDirX);
+		double deltaDistY = Math.abs(1.0 / rayDirY);
+
+		int stepX = (int) Math.signum(rayDirX);
+		int stepY = (int) Math.signum(rayDirY);
+
+		if (rayDirX < 0) {
+			sideDistX = (playerX - mapX) * deltaDistX;
+		} else {
+			sideDistX = (mapX + 1 - playerX) * deltaDistX;
+		}
+
+		if (rayDirY < 0) {
+			sideDistY = (playerY - mapY) * deltaDistY;
+		} else {
+			sideDistY = (mapY + 1 - playerY) * deltaDistY;
+		}
+
+		boolean skipping = map.hasClearance();
+		boolean hit = false;
+		int side = 0;
+		int steps = 0;
+
+		while (!hit) {
+			if (sideDistX < sideDistY) {
+				sideDistX += deltaDistX;
+				mapX += stepX;
+				side = 0;
+			} else {
+				sideDistY += deltaDistY;
+				mapY += stepY;
+				side = 1;
+			}
+
+			int tile = map.get(mapX, mapY);
+			steps++;
+			if (tile == -1) {
+				columnTexture[col] = -1;
+				columnSteps[col] = steps;
+				columnDepth[col] = Double.POSITIVE_INFINITY;
+				return;
+			}
+			if (tile > 0) {
+				hit = true;
+			} else if (skipping) {
+				// cells closer than the clearance are empty, so step through them without reading the map
+				int leftX = map.getClearance(mapX, mapY) - 1;
+				int leftY = leftX;
+
+				while (true) {
+					if (sideDistX < sideDistY) {
+						if (leftX == 0)
+							break;
+						leftX--;
+						sideDistX += deltaDistX;
+						mapX += stepX;
+					} else {
+						if (leftY == 0)
+							break;
+						leftY--;
+						sideDistY += deltaDistY;
+						mapY += stepY;
+					}
+				}
+			}
+		}
+
+		double p;
+		double d;
+
+		if (side == 0) {
+			d = (mapX - playerX + (1 - stepX) / 2) / rayDirX;
+		} else {
+			d = (mapY - playerY + (1 - stepY) / 2) / rayDirY;
+		}
+
+		p = d * rays.getFisheye(col);
+
+		double wallX;
+
+		if (side == 0)
+			wallX = playerY + d * rayDirY;
+		else
+			wallX = playerX + d * rayDirX;
+
+		wallX -= Math.floor(wallX);
+
+		int texX = (int) (wallX * (double) TEXTURE_WIDTH);
+
+		if (side == 0 && rayDirX > 0)
+			texX = TEXTURE_WIDTH - texX - 1;
+		if (side == 1 && rayDirY < 0)
+			texX = TEXTURE_WIDTH - texX - 1;
+
+		columnTexture[col] = map.get(mapX, mapY) - 1;
+		columnSide[col] = side;
+		columnTexX[col] = texX;
+		columnHeight[col] = (int) (distToProjection / p);
+		columnDistance[col] = d;
+		columnDepth[col] = p;
+		columnSteps[col] = steps;
+	}
+
+	// Same traversal as castDouble, but side distances, the hit distance and the
+	// wall coordinate are FIXED_BITS fixed-point integers.
+	private void castFixed(int col) {
+		long distToProjection = (long) (rays.getDistToProjection() * FIXED_ONE);
+
+		long rayDirX = (long) (rays.getDirX(col) * FIXED_ONE);
+		long rayDirY = (long) (rays.getDirY(col) * FIXED_ONE);
+
+		long posX = (long) (playerX * FIXED_ONE);
+		long posY = (long) (playerY * FIXED_ONE);
+
+		int mapX = (int) (posX >> FIXED_BITS);
+		int mapY = (int) (posY >> FIXED_BITS);
+
+		// rays parallel to an axis never step along it
+		long deltaDistX = rayDirX == 0 ? FIXED_FAR : Math.min(FIXED_FAR, (FIXED_ONE << FIXED_BITS) / Math.abs(rayDirX));
+		long deltaDistY = rayDirY == 0 ? FIXED_FAR : Math.min(FIXED_FAR, (FIXED_ONE << FIXED_BITS) / Math.abs(rayDirY));
+
+		int stepX = rayDirX < 0 ? -1 : 1;
+		int stepY = rayDirY < 0 ? -1 : 1;
+
+		long fracX = posX & (FIXED_ONE - 1);
+		long fracY = posY & (FIXED_ONE - 1);
+
+		long sideDistX = ((rayDirX < 0 ? fracX : FIXED_ONE - fracX) * deltaDistX) >> FIXED_BITS;
+		long sideDistY = ((rayDirY < 0 ? fracY : FIXED_ONE - fracY) * deltaDistY) >> FIXED_BITS;
+
+		boolean skipping = map.hasClearance();
+		int side;
+		int tile;
+		int steps = 0;
+
+		while (true) {
+			if (sideDistX < sideDistY) {
+				sideDistX += deltaDistX;
+				mapX += stepX;
+				side = 0;
+			} else {
+				sideDistY += deltaDistY;
+				mapY += stepY;
+				side = 1;
+			}
+
+			tile = map.get(mapX, mapY);
+			steps++;
+			if (tile == -1) {
+				columnTexture[col] = -1;
+				columnSteps[col] = steps;
+				columnDepth[col] = Double.POSITIVE_INFINITY;
+				return;
+			}
+			if (tile > 0) {
+				break;
+			} else if (skipping) {
+				// cells closer than the clearance are empty, so step through them without reading the map
+				int leftX = map.getClearance(mapX, mapY) - 1;
+				int leftY = leftX;
+
+				while (true) {
+					if (sideDistX < sideDistY) {
+						if (leftX == 0)
+							break;
+						leftX--;
+						sideDistX += deltaDistX;
+						mapX += stepX;
+					} else {
+						if (leftY == 0)
+							break;
+						leftY--;
+						sideDistY += deltaDistY;
+						mapY += stepY;
+					}
+				}
+			}
+		}
+
+		long d = side == 0 ? sideDistX - deltaDistX : sideDistY - deltaDistY;
+		long p = Math.max(1, (d * (long) (rays.getFisheye(col) * FIXED_ONE)) >> FIXED_BITS);
+
+		long wallX;
+
+		if (side == 0)
+			wallX = posY + ((d * rayDirY) >> FIXED_BITS);
+		else
+			wallX = posX + ((d * rayDirX) >> FIXED_BITS);
+
+		int texX = (int) (((wallX & (FIXED_ONE - 1)) * TEXTURE_WIDTH) >> FIXED_BITS);
+
+		if (side == 0 && rayDirX > 0)
+			texX = TEXTURE_WIDTH - texX - 1;
+		if (side == 1 && rayDirY < 0)
+			texX = TEXTURE_WIDTH - texX - 1;
+
+		columnTexture[col] = tile - 1;
+		columnSide[col] = side;
+		columnTexX[col] = texX;
+		columnHeight[col] = (int) Math.min(Integer.MAX_VALUE, distToProjection / p);
+		columnDistance[col] = (double) d / FIXED_ONE;
+		columnDepth[col] = (double) p / FIXED_ONE;
+		columnSteps[col] = steps;
+	}
+
+	private void drawSlice(int col) {
+		int sliceHeight = columnHeight[col];
+
+		int drawBegin = (VIRTUAL_HEIGHT / 2) - (sliceHeight / 2);
+		int drawEnd = (VIRTUAL_HEIGHT / 2) + (sliceHeight / 2);
+
+		drawBegin = Math.max(0, drawBegin);
+		drawEnd = Math.min(VIRTUAL_HEIGHT, drawEnd);
+
+		columnTop[col] = drawBegin;
+		columnBottom[col] = drawEnd;
+
+		boolean shaded = columnSide[col] == 1;
+
+		// sides are halved on top of the light, so they stay half as bright as fronts in fog
+		int light = lighting != null ? lighting.level(columnDepth[col]) : 0;
+
+		if (fixedPoint) {
+			if (sliceHeight <= 0)
+				return;
+
+			// the start is divided exactly so the truncated step only drifts over visible rows
+			long textureStep = ((long) TEXTURE_HEIGHT << FIXED_BITS) / sliceHeight;
+			long texturePos = ((long) (drawBegin - VIRTUAL_HEIGHT / 2 + sliceHeight / 2) * TEXTURE_HEIGHT << FIXED_BITS)
+					/ sliceHeight;
+
+			// distant slices skip texels, so they read a smaller copy instead
+			int level = mipmapping ? Textures.level((int) Math.min(Integer.MAX_VALUE, textureStep >> FIXED_BITS)) : 0;
+			int size = TEXTURE_HEIGHT >> level;
+			int[] texture = wallTextures(level, light)[columnTexture[col]];
+			int texX = columnTexX[col] >> level;
+
+			// consecutive texY are one int apart in a transposed texture and a whole row apart otherwise
+			int base = columnMajor ? size * texX : texX;
+			int pitch = columnMajor ? 1 : size;
+
+			if (palette != null) {
+				byte[] indices = (columnMajor ? palette.getColumns(level) : palette.getMipmap(level))[columnTexture[col]];
+				byte[] remap = lighting != null ? shaded ? lighting.getHalfColormap(light) : lighting.getColormap(light)
+						: shaded ? palette.getShade() : palette.getIdentity();
+
+				for (int row = drawBegin; row < drawEnd; ++row) {
+					int texY = (int) (texturePos >> (FIXED_BITS + level)) & (size - 1);
+					texturePos += textureStep;
+					pixels[row * VIRTUAL_WIDTH + col] = remap[indices[base + pitch * texY] & 255];
+				}
+				return;
+			}
+
+			for (int row = drawBegin; row < drawEnd; ++row) {
+				int texY = (int) (texturePos >> (FIXED_BITS + level)) & (size - 1);
+				texturePos += textureStep;
+				int color = texture[base + pitch * texY];
+
+				if (shaded)
+					color = (color >> 1) & 8355711;
+
+				framebuffer[OFFSET + row * STRIDE + col] = color;
+			}
+			return;
+		}
+
+		double textureStep = (double) TEXTURE_HEIGHT / sliceHeight;
+		double texturePos = (drawBegin - VIRTUAL_HEIGHT / 2 + sliceHeight / 2) * textureStep;
+
+		int level = mipmapping ? Textures.level((int) textureStep) : 0;
+		int size = TEXTURE_HEIGHT >> level;
+		int[] texture = wallTextures(level, light)[columnTexture[col]];
+		int texX = columnTexX[col] >> level;
+
+		// consecutive texY are one int apart in a transposed texture and a whole row apart otherwise
+		int base = columnMajor ? size * texX : texX;
+		int pitch = columnMajor ? 1 : size;
+
+		if (palette != null) {
+			byte[] indices = (columnMajor ? palette.getColumns(level) : palette.getMipmap(level))[columnTexture[col]];
+			byte[] remap = lighting != null ? shaded ? lighting.getHalfColormap(light) : lighting.getColormap(light)
+					: shaded ? palette.getShade() : palette.getIdentity();
+
+			for (int row = drawBegin; row < drawEnd; ++row) {
+				int texY = ((int) texturePos >> level) & (size - 1);
+				texturePos += textureStep;
+				pixels[row * VIRTUAL_WIDTH + col] = remap[indices[base + pitch * texY] & 255];
+			}
+			return;
+		}
+
+		for (int row = drawBegin; row < drawEnd; ++row) {
+			int texY = ((int) texturePos >> level) & (size - 1); // samething as mod size
+			texturePos += textureStep;
+			int color = texture[base + pitch * texY];
+
+			if (shaded)
+				color = (color >> 1) & 8355711;
+
+			framebuffer[OFFSET + row * STRIDE + col] = color;
+		}
+	}
+
+	private int[][] wallTextures(int level, int light) {
+		if (lighting != null)
+			return columnMajor ? lighting.getColumns(light, level) : lighting.getMipmap(light, level);
+
+		return (columnMajor ? columnMipmaps : mipmaps)[level];
+	}
+
+	// Draws the sprites in front of the walls of the last wall pass.
+	public void drawSprites() {
+		visibleSprites = 0;
+		if (sprites == null || sprites.size() == 0)
+			return;
+
+		cullSprites();
+
+		// the depth sits in the high bits, so this sorts near to far
+		Arrays.sort(spriteOrder, 0, visibleSprites);
+
+		// every strip draws all sprites clipped to its own columns
+		pool.run(VIRTUAL_WIDTH, spriteStrip);
+	}
+
+	// Keeps the sprites that are in front of the camera, inside the field of view and
+	// not entirely behind walls, with their screen position and size.
+	private void cullSprites() {
+		for (int tile = 0; tile < tileDepth.length; ++tile) {
+			int from = tile << DEPTH_TILE_BITS;
+			int to = Math.min(VIRTUAL_WIDTH, from + (1 << DEPTH_TILE_BITS));
+			double farthest = 0;
+
+			for (int col = from; col < to; ++col)
+				farthest = Math.max(farthest, columnDepth[col]);
+
+			tileDepth[tile] = farthest;
+		}
+
+		double dirCos = Math.cos(playerDirection);
+		double dirSin = Math.sin(playerDirection);
+		double halfCos = Math.cos(0.5 * playerFov);
+		double halfSin = Math.sin(0.5 * playerFov);
+		double columnsPerRadian = (VIRTUAL_WIDTH - 1) / playerFov;
+
+		for (int i = 0; i < sprites.size(); ++i) {
+			double relX = sprites.getX(i) - playerX;
+			double relY = sprites.getY(i) - playerY;
+
+			// forward along the view direction and sideways to its left, in cells
+			double depth = relX * dirCos - relY * dirSin;
+			double lateral = -relX * dirSin - relY * dirCos;
+
+			// behind the camera, or half a cell or more outside the left or right edge
+			if (depth < 0.1 || Math.abs(lateral) * halfCos - depth * halfSin > 0.5)
+				continue;
+
+			double distance = Math.sqrt(depth * depth + lateral * lateral);
+			double center = (0.5 * playerFov - Math.atan2(lateral, depth)) * columnsPerRadian;
+			double width = 2 * Math.atan(0.5 / distance) * columnsPerRadian;
+
+			int left = Math.max(0, (int) (center - 0.5 * width));
+			int right = Math.min(VIRTUAL_WIDTH - 1, (int) (center + 0.5 * width));
+			if (left > right)
+				continue;
+
+			boolean hidden = true;
+			for (int tile = left >> DEPTH_TILE_BITS; tile <= right >> DEPTH_TILE_BITS && hidden; ++tile)
+				hidden = tileDepth[tile] <= depth;
+
+			if (hidden)
+				continue;
+
+			if (visibleSprites == spriteOrder.length)
+				growVisibleSprites();
+
+			int slot = visibleSprites++;
+			spriteIndex[slot] = i;
+			spriteLeft[slot] = center - 0.5 * width;
+			spriteWidth[slot] = width;
+			spriteDepth[slot] = depth;
+			spriteHeight[slot] = (int) Math.min(Integer.MAX_VALUE, rays.getDistToProjection() / depth);
+			spriteOrder[slot] = ((long) Float.floatToIntBits((float) depth) << 32) | slot;
+		}
+	}
+
+	private void growVisibleSprites() {
+		int capacity = spriteOrder.length * 2;
+
+		spriteOrder = Arrays.copyOf(spriteOrder, capacity);
+		spriteIndex = Arrays.copyOf(spriteIndex, capacity);
+		spriteLeft = Arrays.copyOf(spriteLeft, capacity);
+		spriteWidth = Arrays.copyOf(spriteWidth, capacity);
+		spriteDepth = Arrays.copyOf(spriteDepth, capacity);
+		spriteHeight = Arrays.copyOf(spriteHeight, capacity);
+	}
+
+	private void drawSpriteStrip(int from, int to) {
+		// far to near, so nearer sprites cover farther ones
+		for (int i = visibleSprites - 1; i >= 0; --i) {
+			int slot = (int) spriteOrder[i];
+
+			double left = spriteLeft[slot];
+			double width = spriteWidth[slot];
+			int colBegin = Math.max(from, (int) Math.ceil(left));
+			int colEnd = Math.min(to, (int) Math.ceil(left + width));
+
+			if (colBegin >= colEnd)
+				continue;
+
+			double depth = spriteDepth[slot];
+			int spriteSize = spriteHeight[slot];
+
+			int drawBegin = Math.max(0, (VIRTUAL_HEIGHT / 2) - (spriteSize / 2));
+			int drawEnd = Math.min(VIRTUAL_HEIGHT, (VIRTUAL_HEIGHT / 2) + (spriteSize / 2));
+
+			double textureStep = (double) TEXTURE_HEIGHT / spriteSize;
+			double textureStart = (drawBegin - VIRTUAL_HEIGHT / 2 + spriteSize / 2) * textureStep;
+
+			int level = mipmapping ? Textures.level((int) textureStep) : 0;
+			int size = TEXTURE_HEIGHT >> level;
+			int textureIndex = sprites.getTexture(spriteIndex[slot]);
+			int[] texture = columnMipmaps[level][textureIndex];
+			byte[] indices = palette != null ? palette.getColumns(level)[textureIndex] : null;
+
+			// transparency goes by the unshaded texels, the colors by the lit ones
+			int light = lighting != null ? lighting.level(depth) : 0;
+			int[] lit = lighting != null ? lighting.getColumns(light, level)[textureIndex] : texture;
+			byte[] remap = lighting != null && indices != null ? lighting.getColormap(light) : null;
+
+			for (int col = colBegin; col < colEnd; ++col) {
+				// walls in front of the sprite hide this column of it
+				if (columnDepth[col] <= depth)
+					continue;
+
+				int texX = Math.min(size - 1, (int) ((col - left) * size / width));
+				int base = size * texX;
+				double texturePos = textureStart;
+
+				if (indices != null) {
+					for (int row = drawBegin; row < drawEnd; ++row) {
+						int texY = ((int) texturePos >> level) & (size - 1);
+						texturePos += textureStep;
+						byte index = indices[base + texY];
+
+						if (index != 0)
+							pixels[row * VIRTUAL_WIDTH + col] = remap != null ? remap[index & 255] : index;
+					}
+					continue;
+				}
+
+				for (int row = drawBegin; row < drawEnd; ++row) {
+					int texY = ((int) texturePos >> level) & (size - 1);
+					texturePos += textureStep;
+					if (texture[base + texY] != 0)
+						framebuffer[OFFSET + row * STRIDE + col] = lit[base + texY];
+				}
+			}
+		}
+	}
+
+	// Casts the floor and ceiling wherever the last drawWalls left them showing, or
+	// everywhere with floorGaps off.
+	public void drawFloorAndCeiling() {
+		openFrom = VIRTUAL_HEIGHT / 2;
+		if (floorGaps) {
+			for (int col = 0; col < VIRTUAL_WIDTH; ++col)
+				openFrom = Math.max(openFrom, Math.max(columnBottom[col], VIRTUAL_HEIGHT - columnTop[col]));
+		}
+
+		// every band of rows writes its own floor rows and their mirrored ceiling rows
+		pool.run(VIRTUAL_HEIGHT - VIRTUAL_HEIGHT / 2, floorStrip);
+	}
+
+	// Draws floor rows VIRTUAL_HEIGHT / 2 + from up to VIRTUAL_HEIGHT / 2 + to, each with
+	// the ceiling row mirrored above the horizon.
+	private void drawFloorStrip(int from, int to) {
+		// leftmost ray (x = 0)
+		double rayDirX0 = rays.getDirX(0);
+		double rayDirY0 = rays.getDirY(0);
+
+		// rightmost ray (x = VIRTUAL_WIDTH)
+		double rayDirX1 = rays.getDirX(VIRTUAL_WIDTH - 1);
+		double rayDirY1 = rays.getDirY(VIRTUAL_WIDTH - 1);
+
+		double spread = Math.max(Math.abs(rayDirX1 - rayDirX0), Math.abs(rayDirY1 - rayDirY0));
+
+		for (int p = from; p < to; ++p) {
+			int y = VIRTUAL_HEIGHT / 2 + p;
+			double horizDistance = rowDistance[p];
+
+			double floorStepX = horizDistance * (rayDirX1 - rayDirX0) / VIRTUAL_WIDTH;
+			double floorStepY = horizDistance * (rayDirY1 - rayDirY0) / VIRTUAL_WIDTH;
+
+			double floorX = playerX + horizDistance * rayDirX0;
+			double floorY = playerY + horizDistance * rayDirY0;
+
+			// texels crossed per pixel grow with the distance, so far rows read a smaller copy
+			double texelsPerPixel = horizDistance * spread * TEXTURE_WIDTH / VIRTUAL_WIDTH;
+			int level = mipmapping ? Textures.level((int) Math.min(Integer.MAX_VALUE, texelsPerPixel)) : 0;
+			int size = TEXTURE_WIDTH >> level;
+			byte[][] levelIndices = palette != null ? palette.getMipmap(level) : null;
+
+			// floor and ceiling are drawn at half brightness, lit or not
+			int light = lighting != null ? lighting.level(horizDistance) : 0;
+			byte[] shade = palette == null ? null : lighting != null ? lighting.getHalfColormap(light) : palette.getShade();
+
+			// lit textures are already shaded
+			int[][] rowTextures = lighting != null ? lighting.getMipmap(light, level) : mipmaps[level];
+			int[] atlas = levelIndices != null || !spans.readsAtlas() ? null
+					: lighting != null ? lighting.getAtlas(light, level) : textures.getAtlas(level);
+
+			if (y >= openFrom) {
+				drawFloorRun(y, 0, VIRTUAL_WIDTH, true, size, rowTextures, atlas, levelIndices, shade, floorX, floorY,
+						floorStepX, floorStepY);
+				continue;
+			}
+
+			// runs of columns whose walls end above this row, split where the mirrored
+			// ceiling row is still covered, which only happens right below a wall when the
+			// height is odd
+			for (int col = 0; col < VIRTUAL_WIDTH;) {
+				int gap = gap(col, y);
+				int start = col;
+
+				while (++col < VIRTUAL_WIDTH && gap(col, y) == gap)
+					;
+
+				if (gap > 0)
+					drawFloorRun(y, start, col, gap == 2, size, rowTextures, atlas, levelIndices, shade, floorX,
+							floorY, floorStepX, floorStepY);
+			}
+		}
+	}
+
+	// 0 where the wall in col covers floor row y, 1 where only the floor shows and 2 where
+	// the mirrored ceiling row shows as well. With an odd height the middle row is both,
+	// and the ceiling shows there when the wall is less than two pixels tall.
+	private int gap(int col, int y) {
+		if (columnBottom[col] > y)
+			return 0;
+
+		int ceilingRow = VIRTUAL_HEIGHT - 1 - y;
+		return ceilingRow < columnTop[col] || ceilingRow >= columnBottom[col] ? 2 : 1;
+	}
+
+	// Columns from up to to of floor row y, and of its mirrored ceiling row when ceiling is
+	// set, from palette indices when there are any.
+	private void drawFloorRun(int y, int from, int to, boolean ceiling, int size, int[][] textures, int[] atlas,
+			byte[][] indices, byte[] shade, double floorX, double floorY, double floorStepX, double floorStepY) {
+		if (indices != null) {
+			spans.drawFloorRow(map, indices, shade, size, pixels, y * VIRTUAL_WIDTH,
+					ceiling ? (VIRTUAL_HEIGHT - y - 1) * VIRTUAL_WIDTH : -1, from, to, floorX, floorY, floorStepX,
+					floorStepY);
+			return;
+		}
+
+		spans.drawFloorRow(map, textures, atlas, size, true, framebuffer, OFFSET + y * STRIDE,
+				ceiling ? OFFSET + (VIRTUAL_HEIGHT - y - 1) * STRIDE : -1, from, to, floorX, floorY, floorStepX,
+				floorStepY);
+	}
+
+	// Looks the indices of the 8-bit mode up into the framebuffer, a band of rows per thread.
+	public void drawPalette() {
+		pool.run(VIRTUAL_HEIGHT, paletteStrip);
+	}
+
+	private void drawPaletteStrip(int from, int to) {
+		int[] colors = palette.getColors();
+
+		for (int row = from; row < to; ++row) {
+			int source = row * VIRTUAL_WIDTH;
+			int target = OFFSET + row * STRIDE;
+
+			for (int col = 0; col < VIRTUAL_WIDTH; ++col)
+				framebuffer[target + col] = colors[pixels[source + col] & 255];
+		}
+	}
+
+	public void drawMinimap() {
+		// at most a quarter of the screen across, scrolling with the player on bigger maps
+		if (minimap != null)
+			minimap.draw(framebuffer, OFFSET, STRIDE, VIRTUAL_WIDTH / 4, VIRTUAL_HEIGHT / 4, playerX, playerY);
+	}
+}
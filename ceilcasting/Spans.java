@@ -0,0 +1,89 @@
+// The floor and ceiling row loops, kept apart from Renderer so a Vector API build can
+// replace it. simd/VectorSpans.java needs the jdk.incubator.vector module to compile
+// and to run, so it is built on its own into the same class directory:
+//
+//   javac --add-modules jdk.incubator.vector -cp . -d . simd/VectorSpans.java
+//   java --add-modules jdk.incubator.vector Raycaster
+//
+// and get() falls back to these scalar loops when it's missing or can't be loaded.
+// -Draycaster.simd=false keeps the scalar loops either way.
+public class Spans {
+	private final static Spans PREFERRED = load();
+
+	public static Spans get() {
+		return PREFERRED;
+	}
+
+	private static Spans load() {
+		if (!Boolean.parseBoolean(System.getProperty("raycaster.simd", "true")))
+			return new Spans();
+
+		try {
+			return (Spans) Class.forName("VectorSpans").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError ex) {
+			return new Spans();
+		}
+	}
+
+	public String getName() {
+		return "scalar";
+	}
+
+	// Whether drawFloorRow reads the atlas it is handed, so callers only build one for
+	// kernels that do.
+	public boolean readsAtlas() {
+		return false;
+	}
+
+	// Draws pixels from up to to of a floor row and its mirrored ceiling row, the floor
+	// under pixel x being (floorX + x * stepX, floorY + x * stepY). floorRow and
+	// ceilingRow index pixel 0 of the rows, and a ceilingRow of -1 leaves the ceiling
+	// alone. atlas holds the same textures back to back, for kernels that read them from
+	// one array, and may be null unless readsAtlas(). halve draws both at half brightness.
+	public void drawFloorRow(Map map, int[][] textures, int[] atlas, int size, boolean halve, int[] framebuffer,
+			int floorRow, int ceilingRow, int from, int to, double floorX, double floorY, double stepX, double stepY) {
+		floorX += from * stepX;
+		floorY += from * stepY;
+
+		for (int x = from; x < to; ++x) {
+			int cellX = (int) Math.floor(floorX);
+			int cellY = (int) Math.floor(floorY);
+
+			int tx = (int)(size * (floorX - cellX)) & (size - 1);
+			int ty = (int)(size * (floorY - cellY)) & (size - 1);
+
+			floorX += stepX;
+			floorY += stepY;
+
+			int floor = textures[map.getFloor(cellX, cellY)][size * ty + tx];
+			framebuffer[floorRow + x] = halve ? (floor >> 1) & 8355711 : floor;
+
+			if (ceilingRow >= 0) {
+				int ceiling = textures[map.getCeiling(cellX, cellY)][size * ty + tx];
+				framebuffer[ceilingRow + x] = halve ? (ceiling >> 1) & 8355711 : ceiling;
+			}
+		}
+	}
+
+	// The 8-bit mode's floor row and mirrored ceiling row, palette indices remapped by shade.
+	public void drawFloorRow(Map map, byte[][] indices, byte[] shade, int size, byte[] pixels, int floorRow,
+			int ceilingRow, int from, int to, double floorX, double floorY, double stepX, double stepY) {
+		floorX += from * stepX;
+		floorY += from * stepY;
+
+		for (int x = from; x < to; ++x) {
+			int cellX = (int) Math.floor(floorX);
+			int cellY = (int) Math.floor(floorY);
+
+			int tx = (int)(size * (floorX - cellX)) & (size - 1);
+			int ty = (int)(size * (floorY - cellY)) & (size - 1);
+
+			floorX += stepX;
+			floorY += stepY;
+
+			pixels[floorRow + x] = shade[indices[map.getFloor(cellX, cellY)][size * ty + tx] & 255];
+			if (ceilingRow >= 0)
+				pixels[ceilingRow + x] = shade[indices[map.getCeiling(cellX, cellY)][size * ty + tx] & 255];
+		}
+	}
+}
@@ -0,0 +1,138 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// The 32-bit floor row loop of Spans on the Vector API, see Spans for building it. A
+// whole int vector of pixels is stepped at a time: their cells and texel offsets come
+// from shifts and masks of fixed-point positions, and the texels are halved and stored
+// as vectors. The texels are fetched lane by lane from the atlas of the mip level, as
+// the cells' textures come from the map one at a time anyway, and JDK 17's gather
+// crashed the VM with 512-bit vectors while being no faster than plain loads with
+// 256-bit ones. Fixed point can pick a texel next to the one the scalar loop's doubles
+// pick at a boundary, which Benchmark compare keeps within its tolerance.
+public class VectorSpans extends Spans {
+	private final static VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+	// fraction bits of the floor positions, relative to the cell under a row's first pixel
+	private final static int FLOOR_BITS = 16;
+	private final static double FLOOR_ONE = 1 << FLOOR_BITS;
+
+	// Pixels stepped from one exact position before the next is worked out again. The
+	// step is rounded to FLOOR_BITS, so left alone its error would grow along the row to
+	// about 2 texels at 1920 wide; over a block it stays under 1/30 of one.
+	private final static int ANCHOR = 64;
+
+	private final static int[] LANES = new int[INTS.length()];
+
+	static {
+		for (int i = 0; i < LANES.length; ++i)
+			LANES[i] = i;
+	}
+
+	// cell x, cell y and texel offset of each lane, then its floor and ceiling texels, per thread
+	private final ThreadLocal<int[][]> scratch = ThreadLocal.withInitial(() -> new int[5][INTS.length()]);
+
+	@Override
+	public String getName() {
+		return "vector, " + INTS.length() + " pixels per step";
+	}
+
+	@Override
+	public boolean readsAtlas() {
+		return true;
+	}
+
+	// Every block of ANCHOR pixels is stepped in fixed point from its exact first
+	// position, so a pixel lands on the same texel whichever run it is drawn in.
+	@Override
+	public void drawFloorRow(Map map, int[][] textures, int[] atlas, int size, boolean halve, int[] framebuffer,
+			int floorRow, int ceilingRow, int from, int to, double floorX, double floorY, double stepX, double stepY) {
+		int cellX = (int) Math.floor(floorX);
+		int cellY = (int) Math.floor(floorY);
+		int fixedStepX = (int) Math.round(stepX * FLOOR_ONE);
+		int fixedStepY = (int) Math.round(stepY * FLOOR_ONE);
+		int sizeBits = Integer.numberOfTrailingZeros(size);
+
+		for (int x = from; x < to;) {
+			int anchor = x - x % ANCHOR;
+			int end = Math.min(to, anchor + ANCHOR);
+
+			drawFloorRow(map, atlas, sizeBits, halve, framebuffer, floorRow + x, ceilingRow < 0 ? -1 : ceilingRow + x,
+					end - x, cellX, cellY, fixed(floorX - cellX, stepX, anchor) + (x - anchor) * fixedStepX,
+					fixed(floorY - cellY, stepY, anchor) + (x - anchor) * fixedStepY, fixedStepX, fixedStepY);
+			x = end;
+		}
+	}
+
+	// the position of pixel x in fixed point, start being pixel 0's relative to its cell
+	private static int fixed(double start, double step, int x) {
+		return (int) Math.floor((start + x * step) * FLOOR_ONE);
+	}
+
+	// The same run starting at floorRow and ceilingRow, with positions relative to
+	// (cellX, cellY) in FLOOR_BITS fixed point and textures 1 << sizeBits texels square.
+	private void drawFloorRow(Map map, int[] atlas, int sizeBits, boolean halve, int[] framebuffer, int floorRow,
+			int ceilingRow, int width, int cellX, int cellY, int fx, int fy, int stepX, int stepY) {
+		int[][] lanes = scratch.get();
+		int[] cellXs = lanes[0], cellYs = lanes[1], texels = lanes[2], floors = lanes[3], ceilings = lanes[4];
+
+		int mask = (1 << sizeBits) - 1;
+		int texelShift = FLOOR_BITS - sizeBits;
+		int area = 1 << (2 * sizeBits);
+
+		// lane i is i steps ahead of the vector's first pixel
+		IntVector laneX = IntVector.fromArray(INTS, LANES, 0).mul(stepX);
+		IntVector laneY = IntVector.fromArray(INTS, LANES, 0).mul(stepY);
+
+		boolean drawCeiling = ceilingRow >= 0;
+		int bound = INTS.loopBound(width);
+		int x = 0;
+
+		for (; x < bound; x += INTS.length()) {
+			IntVector px = laneX.add(fx + x * stepX);
+			IntVector py = laneY.add(fy + x * stepY);
+
+			px.lanewise(VectorOperators.ASHR, FLOOR_BITS).add(cellX).intoArray(cellXs, 0);
+			py.lanewise(VectorOperators.ASHR, FLOOR_BITS).add(cellY).intoArray(cellYs, 0);
+
+			IntVector tx = px.lanewise(VectorOperators.ASHR, texelShift).and(mask);
+			IntVector ty = py.lanewise(VectorOperators.ASHR, texelShift).and(mask);
+			ty.lanewise(VectorOperators.LSHL, sizeBits).or(tx).intoArray(texels, 0);
+
+			for (int i = 0; i < LANES.length; ++i)
+				floors[i] = atlas[map.getFloor(cellXs[i], cellYs[i]) * area + texels[i]];
+
+			IntVector floor = IntVector.fromArray(INTS, floors, 0);
+			if (halve)
+				floor = floor.lanewise(VectorOperators.ASHR, 1).and(8355711);
+			floor.intoArray(framebuffer, floorRow + x);
+
+			if (drawCeiling) {
+				for (int i = 0; i < LANES.length; ++i)
+					ceilings[i] = atlas[map.getCeiling(cellXs[i], cellYs[i]) * area + texels[i]];
+
+				IntVector ceiling = IntVector.fromArray(INTS, ceilings, 0);
+				if (halve)
+					ceiling = ceiling.lanewise(VectorOperators.ASHR, 1).and(8355711);
+				ceiling.intoArray(framebuffer, ceilingRow + x);
+			}
+		}
+
+		// the lanes left over are stepped one at a time the same way
+		for (; x < width; ++x) {
+			int px = fx + x * stepX;
+			int py = fy + x * stepY;
+			int texel = (((py >> texelShift) & mask) << sizeBits) | ((px >> texelShift) & mask);
+			int floorCellX = cellX + (px >> FLOOR_BITS);
+			int floorCellY = cellY + (py >> FLOOR_BITS);
+
+			int floor = atlas[map.getFloor(floorCellX, floorCellY) * area + texel];
+			framebuffer[floorRow + x] = halve ? (floor >> 1) & 8355711 : floor;
+
+			if (drawCeiling) {
+				int ceiling = atlas[map.getCeiling(floorCellX, floorCellY) * area + texel];
+				framebuffer[ceilingRow + x] = halve ? (ceiling >> 1) & 8355711 : ceiling;
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+import java.lang.management.ManagementFactory;
+
+import java.util.Random;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.ThreadMXBean;
+
+// Times each render pass headlessly:  java -Djava.awt.headless=true Benchmark [frames]
+// or checks that frames allocate nothing, exiting 1 if they do:  ... -XX:-DoEscapeAnalysis Benchmark alloc [frames]
+public class Benchmark {
+	private final static int[][] RESOLUTIONS = { { 320, 200 }, { 640, 400 }, { 1280, 800 }, { 1920, 1200 } };
+
+	// 0 stands for assets/map.txt, everything else is a generated size x size map
+	private final static int[] MAP_SIZES = { 0, 64, 512, 2048 };
+
+	private final static double FOV = Math.toRadians(66.6);
+
+	// bytes the counted laps of one alloc run may allocate in all, for the odd one-off the
+	// JVM makes on this thread when C2 deoptimizes and relinks a constant or call site.
+	// One 16-byte object a frame exceeds it over three laps of 32 frames, the fewest alloc takes.
+	private final static long ALLOC_TOLERANCE = 1024;
+
+	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("alloc"))
+			System.exit(alloc(args.length > 1 ? Integer.parseInt(args[1]) : 300) ? 0 : 1);
+
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+
+		System.out.println("frames per run: " + frames);
+		System.out.printf("%-10s %-10s %12s %12s %12s%n", "resolution", "map", "floor ms", "walls ms", "minimap ms");
+
+		for (int size : MAP_SIZES) {
+			Map map = size == 0 ? new Map("assets/map.txt") : generateMap(size, 42);
+			double x = size == 0 ? 9 : size / 2 + 0.5;
+			double y = size == 0 ? 9 : size / 2 + 0.5;
+
+			for (int[] resolution : RESOLUTIONS) {
+				Renderer renderer = new Renderer(map, resolution[0], resolution[1]);
+				boolean minimap = map.getWidth() <= resolution[0] && map.getHeight() <= resolution[1];
+
+				run(renderer, x, y, frames, minimap);
+				double[] ms = run(renderer, x, y, frames, minimap);
+
+				System.out.printf("%-10s %-10s %12.3f %12.3f %12s%n", resolution[0] + "x" + resolution[1],
+						map.getWidth() + "x" + map.getHeight(), ms[0], ms[1],
+						minimap ? String.format("%.3f", ms[2]) : "n/a");
+			}
+		}
+	}
+
+	// Renders whole frames through render() and reads this thread's allocation counter.
+	// The first lap warms up and the three after it are summed, so a frame that allocates
+	// only now and then still adds up. It refuses to run with escape analysis on, since C2
+	// may then remove a short-lived object that the interpreter or another compile would
+	// still allocate.
+	private static boolean alloc(int frames) {
+		HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+		if (Boolean.parseBoolean(hotspot.getVMOption("DoEscapeAnalysis").getValue()))
+			throw new IllegalStateException("alloc needs -XX:-DoEscapeAnalysis, or C2 hides short-lived allocations");
+		if (frames < 32)
+			throw new IllegalArgumentException("alloc needs at least 32 frames a lap, not " + frames);
+
+		Map map = new Map("assets/map.txt");
+		Renderer renderer = new Renderer(map, 640, 400);
+
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		// what reading the counter twice allocates by itself
+		long overhead = -threads.getThreadAllocatedBytes(thread);
+		overhead += threads.getThreadAllocatedBytes(thread);
+
+		long warmup = 0, counted = 0;
+
+		for (int lap = 0; lap < 4; ++lap) {
+			long before = threads.getThreadAllocatedBytes(thread);
+
+			for (int i = 0; i < frames; ++i) {
+				renderer.setCamera(9, 9, Raycaster.TAU * i / frames, FOV);
+				renderer.render();
+			}
+
+			long bytes = Math.max(0, threads.getThreadAllocatedBytes(thread) - before - overhead);
+			if (lap == 0)
+				warmup = bytes;
+			else
+				counted += bytes;
+		}
+
+		System.out.printf("frames per lap: %d, 640x400, warm-up: %d B, counted: %d B, %.1f B/frame%n", frames,
+				warmup, counted, (double) counted / (3 * frames));
+		if (counted > ALLOC_TOLERANCE)
+			System.out.println("FAILED: the steady-state frame loop allocates more than " + ALLOC_TOLERANCE + " B per run");
+
+		return counted <= ALLOC_TOLERANCE;
+	}
+
+	// Returns the mean milliseconds per frame of the floor, wall and minimap passes
+	// while the camera turns a full circle on the spot.
+	private static double[] run(Renderer renderer, double x, double y, int frames, boolean minimap) {
+		long floor = 0, walls = 0, overlay = 0;
+
+		for (int i = 0; i < frames; ++i) {
+			renderer.setCamera(x, y, Raycaster.TAU * i / frames, FOV);
+
+			long t0 = System.nanoTime();
+			renderer.drawFloorAndCeiling();
+			long t1 = System.nanoTime();
+			renderer.drawWalls();
+			long t2 = System.nanoTime();
+			if (minimap)
+				renderer.drawMinimap();
+			long t3 = System.nanoTime();
+
+			floor += t1 - t0;
+			walls += t2 - t1;
+			overlay += t3 - t2;
+		}
+
+		return new double[] { floor * 1e-6 / frames, walls * 1e-6 / frames, overlay * 1e-6 / frames };
+	}
+
+	// Walled square with scattered pillars and a clear spot in the middle for the camera.
+	static Map generateMap(int size, long seed) {
+		Random random = new Random(seed);
+		int[] grid = new int[size * size];
+
+		for (int r = 0; r < size; ++r) {
+			for (int c = 0; c < size; ++c) {
+				boolean border = r == 0 || c == 0 || r == size - 1 || c == size - 1;
+				boolean center = Math.abs(r - size / 2) <= 1 && Math.abs(c - size / 2) <= 1;
+
+				if (border || (!center && random.nextInt(100) < 3))
+					grid[r * size + c] = Map.R;
+			}
+		}
+
+		return new Map(size, size, grid);
+	}
+}
@@ -10,11 +10,17 @@ import java.awt.image.DataBufferInt;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 
+import java.util.concurrent.locks.LockSupport;
+
 import javax.swing.JFrame;
 
 public class Raycaster implements Runnable {
 	public final static double TAU = Math.PI * 2;
 
+	// -Draycaster.tickrate sets how many fixed simulation steps run per second
+	private final static int TICK_RATE = Math.max(1, Integer.getInteger("raycaster.tickrate", 60));
+	private final static long TICK_NANOS = 1000000000L / TICK_RATE;
+
 	private final int VIRTUAL_WIDTH = 320, VIRTUAL_HEIGHT = 200;
 	private final int WIDTH = 1280, HEIGHT = 720;	
 	
@@ -22,12 +28,14 @@ public class Raycaster implements Runnable {
 	private int[] framebuffer;
 	private Canvas canvas;
 	private JFrame frame;
-	private boolean running;
+	private volatile boolean running;
 	private int fps;
 
 	private Map map;
+	private Renderer renderer;
 
-	private boolean leftPressed, rightPressed, upPressed, downPressed;
+	// set by the event thread, read by the simulation thread
+	private volatile boolean leftPressed, rightPressed, upPressed, downPressed;
 
 	public static void main(String[] args) {
 		new Raycaster();
@@ -95,6 +103,11 @@ public class Raycaster implements Runnable {
 	private void start() {
 		if (!running) {
 			running = true;
+
+			Thread simulation = new Thread(this::simulate, "simulation");
+			simulation.setDaemon(true);
+			simulation.start();
+
 			new Thread(this).start();
 		}
 	}
@@ -108,27 +121,20 @@ public class Raycaster implements Runnable {
 		for (int i = 0; i < framebuffer.length; ++i) {
 			framebuffer[i] = 0xFFFFFFFF;
 		}
+
+		renderer = new Renderer(map, framebuffer, VIRTUAL_WIDTH, VIRTUAL_HEIGHT);
 	}
 
 	@Override
 	public void run() {
-		long lastTime = System.nanoTime();
 		long secondTime = System.currentTimeMillis() + 1000;
 
 		int frames = 0;
-		double delta = 0;
 
 		BufferStrategy buffer = canvas.getBufferStrategy();
 
-		while (running) {					
-			long currentTime = System.nanoTime();
-			long timeDifference = currentTime - lastTime;
-			lastTime = currentTime;
-
-			delta = timeDifference * 1e-9; // in seconds
-					
-			update(delta);
-
+		// draws as fast as it can; the game itself moves on in simulate()
+		while (running) {
 			do {					
 				do {
 					frames++;
@@ -152,23 +158,29 @@ public class Raycaster implements Runnable {
 		}
 	}
 
-	/* reads user input and updates the players position */
-	private void update(double dt) {
-		/* fill in this method */
-	}
+	// Calls update() at a fixed rate on its own thread, so a slow frame never slows
+	// the game down. Nothing is shared with the render thread yet; whatever update()
+	// changes is for render() to read.
+	private void simulate() {
+		long next = System.nanoTime();
 
-	/* raycasts and draws appropriate walls */
-	private void drawWalls() {
-		/* fill in this method */
-	}
+		while (running) {
+			update(1.0 / TICK_RATE);
 
-	/* draws the floor and ceiling */
-	private void drawFloorAndCeiling() {
-		/* fill in this method */
+			long now = System.nanoTime();
+
+			next += TICK_NANOS;
+
+			// after a long stall, e.g. in a debugger, carry on from now instead of catching up
+			if (now - next > 5 * TICK_NANOS)
+				next = now;
+
+			LockSupport.parkNanos(next - now);
+		}
 	}
 
-	/* draws the minimap in the top left corner */
-	private void drawMinimap() {
+	/* reads user input and updates the players position, dt is always one tick */
+	private void update(double dt) {
 		/* fill in this method */
 	}
 
@@ -177,9 +189,8 @@ public class Raycaster implements Runnable {
 	}
 
 	private void render(Graphics2D g) {
-		drawFloorAndCeiling();
-		drawWalls();
-		drawMinimap();
+		/* hand the pose the simulation thread last published to renderer.setCamera before this */
+		renderer.render();
 
 		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
 		g.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
@@ -0,0 +1,67 @@
+public class Renderer {
+	private final int VIRTUAL_WIDTH, VIRTUAL_HEIGHT;
+
+	private final int[] framebuffer;
+
+	private final Map map;
+
+	private double playerX;
+	private double playerY;
+	private double playerFov;
+	private double playerDirection;
+
+	public Renderer(Map map, int width, int height) {
+		this(map, new int[width * height], width, height);
+	}
+
+	// Renders into an existing width * height buffer, e.g. the raster of a BufferedImage.
+	public Renderer(Map map, int[] framebuffer, int width, int height) {
+		if (framebuffer.length < width * height)
+			throw new IllegalArgumentException("framebuffer is smaller than " + width + "x" + height);
+
+		this.map = map;
+		this.framebuffer = framebuffer;
+		this.VIRTUAL_WIDTH = width;
+		this.VIRTUAL_HEIGHT = height;
+	}
+
+	public int[] getFramebuffer() {
+		return framebuffer;
+	}
+
+	public int getWidth() {
+		return VIRTUAL_WIDTH;
+	}
+
+	public int getHeight() {
+		return VIRTUAL_HEIGHT;
+	}
+
+	public void setCamera(double x, double y, double direction, double fov) {
+		playerX = x;
+		playerY = y;
+		playerDirection = direction;
+		playerFov = fov;
+	}
+
+	public void render() {
+		drawFloorAndCeiling();
+		drawWalls();
+		drawMinimap();
+	}
+
+	/* raycasts and draws appropriate walls */
+	public void drawWalls() {
+		/* fill in this method */
+	}
+
+	/* draws the floor and ceiling */
+	public void drawFloorAndCeiling() {
+		/* fill in this method */
+	}
+
+	/* draws the minimap in the top left corner */
+	public void drawMinimap() {
+		/* fill in this method */
+	}
+}
@@ -0,0 +1,131 @@
+import java.awt.image.BufferedImage;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+// Raycasts frames on a producer thread while the presenting thread shows the last
+// finished one. Each backing image has its own renderer. At most one finished frame
+// waits between the two threads, and a newer one replaces it in that slot, so the
+// view lags by a single frame however far apart their speeds are.
+public class FramePipeline {
+	public interface Producer {
+		// false when the renderer's image already held the frame and nothing was drawn
+		boolean draw(Renderer renderer);
+	}
+
+	private static class Backing {
+		final BufferedImage image;
+		final Renderer renderer;
+		boolean drawn;
+
+		Backing(BufferedImage image, Renderer renderer) {
+			this.image = image;
+			this.renderer = renderer;
+		}
+	}
+
+	private final BlockingQueue<Backing> free;
+
+	// the newest finished frame not yet shown, guarded by this
+	private Backing ready;
+
+	// the frame the presenter is showing, handed back on its next call
+	private Backing shown;
+
+	private final Function<BufferedImage, Renderer> renderers;
+	private Thread thread;
+
+	// the size new frames are drawn at; backings of another size are replaced as they come free
+	private int width, height;
+
+	public FramePipeline(int backings, int width, int height, Function<BufferedImage, Renderer> renderers) {
+		if (backings < 2)
+			throw new IllegalArgumentException("a pipeline needs at least two backing images");
+
+		free = new ArrayBlockingQueue<Backing>(backings);
+		this.renderers = renderers;
+		setSize(width, height);
+
+		for (int i = 0; i < backings; ++i)
+			free.add(createBacking(width, height));
+	}
+
+	private Backing createBacking(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+		return new Backing(image, renderers.apply(image));
+	}
+
+	public synchronized void setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	public void start(Producer producer) {
+		thread = new Thread(() -> produce(producer), "frame-producer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// Stops the producer once its current frame is done. With three or more backings it
+	// never waits for the presenter, so it would otherwise keep drawing frames for nobody.
+	public void stop() throws InterruptedException {
+		thread.interrupt();
+		thread.join();
+	}
+
+	private void produce(Producer producer) {
+		try {
+			while (true) {
+				Backing backing = free.take();
+
+				int width, height;
+				synchronized (this) {
+					width = this.width;
+					height = this.height;
+				}
+
+				if (backing.image.getWidth() != width || backing.image.getHeight() != height)
+					backing = createBacking(width, height);
+
+				backing.drawn = producer.draw(backing.renderer);
+
+				// the frame it replaces was never shown, so it goes straight back
+				synchronized (this) {
+					if (ready != null)
+						free.add(ready);
+					ready = backing;
+					notifyAll();
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Blocks for the newest finished frame. The image stays untouched until the next
+	// call, which hands it back to the producer.
+	public BufferedImage next() throws InterruptedException {
+		Backing backing;
+		synchronized (this) {
+			while (ready == null)
+				wait();
+
+			backing = ready;
+			ready = null;
+		}
+
+		if (shown != null)
+			free.put(shown);
+		shown = backing;
+
+		return backing.image;
+	}
+
+	// Whether the frame next() last returned was drawn anew rather than left over from
+	// the last time its backing held the same view.
+	public boolean isDrawn() {
+		return shown != null && shown.drawn;
+	}
+}
@@ -0,0 +1,113 @@
+// Light that falls off with distance into black fog, as colormaps: every texture
+// redrawn at each of LEVELS light levels, and for the 8-bit mode a table from palette
+// index and light level to the index of the shaded color. Level l keeps (LEVELS - 1 - l)
+// / (LEVELS - 1) of the brightness, so the last level is black, and surfaces only pick
+// a table once per column or row and shading a pixel is a plain read. Wall sides facing
+// north and south are still halved on top, by shifting in the 32-bit mode and through a
+// second colormap per level in the 8-bit one.
+public class Lighting {
+	public final static int LEVELS = 32;
+
+	private final double levelsPerCell;
+
+	// [light][mip level][texture], laid out like Textures.getMipmap and Textures.getColumns
+	private final int[][][][] mipmaps = new int[LEVELS][Textures.LEVELS][][];
+	private final int[][][][] columns = new int[LEVELS][Textures.LEVELS][][];
+
+	private final Palette palette;
+	private final byte[][] colormaps;
+	private final byte[][] halfColormaps;
+
+	// Fades to black at distance cells from the camera, indexing palette as well when
+	// it isn't null.
+	public Lighting(Textures textures, Palette palette, double distance) {
+		if (!(distance > 0))
+			throw new IllegalArgumentException("fog distance must be positive: " + distance);
+
+		this.levelsPerCell = (LEVELS - 1) / distance;
+		this.palette = palette;
+
+		for (int light = 0; light < LEVELS; ++light) {
+			for (int level = 0; level < Textures.LEVELS; ++level) {
+				mipmaps[light][level] = shade(textures.getMipmap(level), light);
+				columns[light][level] = shade(textures.getColumns(level), light);
+			}
+		}
+
+		if (palette == null) {
+			colormaps = halfColormaps = null;
+			return;
+		}
+
+		colormaps = new byte[LEVELS][Palette.SIZE];
+		halfColormaps = new byte[LEVELS][Palette.SIZE];
+		int[] colors = palette.getColors();
+
+		for (int light = 0; light < LEVELS; ++light) {
+			for (int i = 1; i < Palette.SIZE; ++i) {
+				int color = shade(colors[i], light);
+				colormaps[light][i] = palette.index(color);
+				halfColormaps[light][i] = palette.index((color >> 1) & 8355711);
+			}
+		}
+	}
+
+	public static double defaultDistance() {
+		String distance = System.getProperty("raycaster.fog");
+		return distance == null ? 0 : Double.parseDouble(distance);
+	}
+
+	private static int[][] shade(int[][] textures, int light) {
+		int[][] result = new int[textures.length][];
+
+		for (int i = 0; i < textures.length; ++i) {
+			result[i] = new int[textures[i].length];
+
+			for (int t = 0; t < textures[i].length; ++t)
+				result[i][t] = shade(textures[i][t], light);
+		}
+
+		return result;
+	}
+
+	// color at the given light level, each channel rounded to nearest
+	public static int shade(int color, int light) {
+		int brightness = LEVELS - 1 - Math.min(LEVELS - 1, light);
+		int result = 0;
+
+		for (int shift = 0; shift < 24; shift += 8)
+			result |= ((((color >> shift) & 255) * brightness + (LEVELS - 1) / 2) / (LEVELS - 1)) << shift;
+
+		return result;
+	}
+
+	// The light level of a surface this many cells away, the last one from the fog
+	// distance on.
+	public int level(double distance) {
+		return (int) Math.min(LEVELS - 1, distance * levelsPerCell);
+	}
+
+	public Palette getPalette() {
+		return palette;
+	}
+
+	// Every texture at the given light and mip level, laid out like Textures.getMipmap.
+	public int[][] getMipmap(int light, int level) {
+		return mipmaps[Math.min(LEVELS - 1, light)][level];
+	}
+
+	// Every texture at the given light and mip level, laid out like Textures.getColumns.
+	public int[][] getColumns(int light, int level) {
+		return columns[Math.min(LEVELS - 1, light)][level];
+	}
+
+	// Palette index to the index of its color at the given light; index 0 stays 0.
+	public byte[] getColormap(int light) {
+		return colormaps[Math.min(LEVELS - 1, light)];
+	}
+
+	// The same at half that brightness, for wall sides and the like.
+	public byte[] getHalfColormap(int light) {
+		return halfColormaps[Math.min(LEVELS - 1, light)];
+	}
+}
@@ -1,33 +1,101 @@
-import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Map {
 	protected int []grid;
 	protected int width;
 	protected int height;
+	protected byte[] clearance;
 
 	public Map(String filename) {
-		try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-			ArrayList<Integer> tempGrid = new ArrayList<Integer>();			
-			String line;
-			while ((line = br.readLine()) != null) {
-				String []cells = line.split("");
-				this.width = Math.max(this.width, cells.length);
-
-				for (String cell : cells) {
-					tempGrid.add(Integer.parseInt(cell));
+		// cells go straight from the character buffer into a growing grid, one row at a time
+		grid = new int[4096];
+
+		try (Reader reader = new FileReader(filename)) {
+			char[] buffer = new char[1 << 16];
+			int size = 0;
+			int line = 1;
+			int column = 0;
+			int blankLine = 0;
+			int read;
+
+			while ((read = reader.read(buffer)) != -1) {
+				for (int i = 0; i < read; ++i) {
+					char ch = buffer[i];
+
+					if (ch == '\n') {
+						if (column > 0)
+							endRow(filename, line, column);
+						else if (height > 0 && blankLine == 0)
+							blankLine = line;
+
+						line++;
+						column = 0;
+						continue;
+					}
+
+					if (ch == '\r')
+						continue;
+
+					if (blankLine != 0)
+						throw malformed(filename, blankLine, "blank line inside the map");
+
+					int cell = parseCell(ch);
+					if (cell < 0)
+						throw malformed(filename, line, "unexpected '" + ch + "' in column " + (column + 1));
+
+					if (size == grid.length)
+						grid = Arrays.copyOf(grid, size * 2);
+
+					grid[size++] = cell;
+					column++;
 				}
-				this.height++;
 			}
 
-			grid = tempGrid.stream()
-				.mapToInt(Integer::intValue)
-				.toArray();
-		} catch (Exception ex) {
-			ex.printStackTrace();
+			if (column > 0)
+				endRow(filename, line, column);
+		} catch (IOException ex) {
+			throw new UncheckedIOException("could not read " + filename, ex);
 		}
+
+		if (height == 0)
+			throw malformed(filename, 1, "no rows");
+
+		grid = Arrays.copyOf(grid, width * height);
+	}
+
+	// for subclasses that keep their cells somewhere other than grid
+	protected Map() {
+	}
+
+	public Map(int width, int height, int[] grid) {
+		if (grid.length != width * height)
+			throw new IllegalArgumentException("grid does not hold " + width + "x" + height + " cells");
+
+		this.width = width;
+		this.height = height;
+		this.grid = grid;
+	}
+
+	private void endRow(String filename, int line, int column) {
+		if (height == 0)
+			width = column;
+		else if (column != width)
+			throw malformed(filename, line, "row has " + column + " cells, expected " + width);
+
+		height++;
+	}
+
+	private static IllegalArgumentException malformed(String filename, int line, String message) {
+		return new IllegalArgumentException(filename + ":" + line + ": " + message);
+	}
+
+	private static int parseCell(char ch) {
+		return ch >= '0' && ch <= '9' ? ch - '0' : -1;
 	}
 
 	public int getWidth() {
@@ -47,4 +115,54 @@ public class Map {
 		
 		return this.grid[yi * width + xi];
 	}
+
+	// Chebyshev distance from each cell to the nearest wall, capped at 255, with the
+	// outside of the map counting as wall. Every cell closer than that is empty.
+	public void buildClearance() {
+		byte[] field = new byte[width * height];
+
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				int d = 0;
+
+				if (grid[y * width + x] == 0) {
+					d = Math.min(clearance(field, x - 1, y), clearance(field, x - 1, y - 1));
+					d = Math.min(d, Math.min(clearance(field, x, y - 1), clearance(field, x + 1, y - 1)));
+					d = Math.min(255, d + 1);
+				}
+
+				field[y * width + x] = (byte) d;
+			}
+		}
+
+		for (int y = height - 1; y >= 0; --y) {
+			for (int x = width - 1; x >= 0; --x) {
+				int d = field[y * width + x] & 0xFF;
+
+				if (d > 1) {
+					int n = Math.min(clearance(field, x + 1, y), clearance(field, x + 1, y + 1));
+					n = Math.min(n, Math.min(clearance(field, x, y + 1), clearance(field, x - 1, y + 1)));
+					field[y * width + x] = (byte) Math.min(d, n + 1);
+				}
+			}
+		}
+
+		clearance = field;
+	}
+
+	private int clearance(byte[] field, int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			return 0;
+
+		return field[y * width + x] & 0xFF;
+	}
+
+	public boolean hasClearance() {
+		return clearance != null;
+	}
+
+	// Only valid inside the map and after buildClearance().
+	public int getClearance(int x, int y) {
+		return clearance[y * width + x] & 0xFF;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,225 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// A map stored as 64x64 chunks of byte cells in a memory-mapped tile file. Chunks are
+// copied out of the mapping the first time a cell in them is read, and the least
+// recently touched ones are dropped once the resident chunks exceed the budget.
+//
+//   java PagedMap generate <file.tiles> <width> <height> [seed]
+//   java PagedMap convert <map.txt> <file.tiles>
+public class PagedMap extends Map {
+	private final static int MAGIC = 0x52434d50; // "RCMP"
+	private final static int HEADER_BYTES = 16;
+
+	public final static int CHUNK_BITS = 6;
+	public final static int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private final static int CHUNK_MASK = CHUNK_SIZE - 1;
+	private final static int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+
+	// whole chunks per mapped segment, since a single mapping is limited to 2 GB
+	private final static int SEGMENT_CHUNKS = Integer.MAX_VALUE / CHUNK_CELLS;
+
+	private final int chunksX;
+	private final MappedByteBuffer[] segments;
+
+	private final AtomicReferenceArray<byte[]> resident;
+	private final boolean[] referenced;
+
+	// resident chunk indices swept by the clock hand when a chunk has to go
+	private final int[] ring;
+	private int ringSize;
+	private int hand;
+
+	private long pageIns;
+
+	public static long defaultBudget() {
+		return Long.getLong("raycaster.mapbudget", 64) << 20;
+	}
+
+	public PagedMap(String filename, long budgetBytes) {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining() && channel.read(header) != -1)
+				;
+			header.flip();
+
+			if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC)
+				throw new IllegalArgumentException(filename + ": not a tile file");
+
+			width = header.getInt();
+			height = header.getInt();
+
+			if (header.getInt() != CHUNK_BITS || width <= 0 || height <= 0)
+				throw new IllegalArgumentException(filename + ": unsupported tile file layout");
+
+			chunksX = (width + CHUNK_MASK) >> CHUNK_BITS;
+			int chunks = Math.toIntExact((long) chunksX * ((height + CHUNK_MASK) >> CHUNK_BITS));
+
+			if (channel.size() < HEADER_BYTES + (long) chunks * CHUNK_CELLS)
+				throw new IllegalArgumentException(filename + ": truncated, expected " + chunks + " chunks");
+
+			segments = new MappedByteBuffer[(chunks + SEGMENT_CHUNKS - 1) / SEGMENT_CHUNKS];
+			for (int i = 0; i < segments.length; ++i) {
+				long first = (long) i * SEGMENT_CHUNKS;
+				long count = Math.min(SEGMENT_CHUNKS, chunks - first);
+
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * CHUNK_CELLS,
+						count * CHUNK_CELLS);
+			}
+
+			resident = new AtomicReferenceArray<byte[]>(chunks);
+			referenced = new boolean[chunks];
+			ring = new int[(int) Math.max(1, Math.min(chunks, budgetBytes / CHUNK_CELLS))];
+		} catch (IOException ex) {
+			throw new UncheckedIOException("could not map " + filename, ex);
+		}
+	}
+
+	@Override
+	public int get(double x, double y) {
+		if (x < 0 || x > this.width - 1 || y < 0 || y > this.height - 1)
+			return -1;
+
+		int xi = (int) x;
+		int yi = (int) y;
+		int chunk = (yi >> CHUNK_BITS) * chunksX + (xi >> CHUNK_BITS);
+
+		byte[] cells = resident.get(chunk);
+		if (cells == null)
+			cells = pageIn(chunk);
+		else if (!referenced[chunk])
+			referenced[chunk] = true;
+
+		return cells[((yi & CHUNK_MASK) << CHUNK_BITS) | (xi & CHUNK_MASK)];
+	}
+
+	// A whole-map field would defeat the paging, so rays step through every cell here.
+	@Override
+	public void buildClearance() {
+	}
+
+	@Override
+	public boolean hasClearance() {
+		return false;
+	}
+
+	public synchronized int getResidentChunks() {
+		return ringSize;
+	}
+
+	public synchronized long getPageIns() {
+		return pageIns;
+	}
+
+	private synchronized byte[] pageIn(int chunk) {
+		byte[] cells = resident.get(chunk);
+		if (cells != null)
+			return cells;
+
+		cells = new byte[CHUNK_CELLS];
+		segments[chunk / SEGMENT_CHUNKS].get((chunk % SEGMENT_CHUNKS) * CHUNK_CELLS, cells);
+
+		if (ringSize < ring.length) {
+			ring[ringSize++] = chunk;
+		} else {
+			// second chance: skip chunks read since the hand last passed them
+			while (referenced[ring[hand]]) {
+				referenced[ring[hand]] = false;
+				hand = (hand + 1) % ring.length;
+			}
+
+			resident.set(ring[hand], null);
+			ring[hand] = chunk;
+			hand = (hand + 1) % ring.length;
+		}
+
+		referenced[chunk] = true;
+		resident.set(chunk, cells);
+		pageIns++;
+
+		return cells;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 4 && args[0].equals("generate")) {
+			long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+			generate(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), seed);
+		} else if (args.length == 3 && args[0].equals("convert")) {
+			write(new Map(args[1]), args[2]);
+		} else {
+			System.err.println("usage: java PagedMap generate <file.tiles> <width> <height> [seed]");
+			System.err.println("       java PagedMap convert <map.txt> <file.tiles>");
+			System.exit(2);
+		}
+	}
+
+	public static void write(Map map, String filename) throws IOException {
+		try (DataOutputStream out = open(filename, map.getWidth(), map.getHeight())) {
+			writeChunks(out, map.getWidth(), map.getHeight(), (x, y) -> map.get(x, y));
+		}
+	}
+
+	// Streams a walled world of scattered pillars chunk by chunk, so it never has to
+	// fit in memory. The corner around the default spawn point (9, 9) is kept clear.
+	public static void generate(String filename, int width, int height, long seed) throws IOException {
+		try (DataOutputStream out = open(filename, width, height)) {
+			writeChunks(out, width, height, (x, y) -> {
+				if (x == 0 || y == 0 || x == width - 1 || y == height - 1)
+					return 1;
+				if (x < 16 && y < 16)
+					return 0;
+
+				long h = (x * 0x9E3779B97F4A7C15L) ^ (y * 0xC2B2AE3D27D4EB4FL) ^ seed;
+				h ^= h >>> 29;
+				h *= 0xBF58476D1CE4E5B9L;
+				h ^= h >>> 32;
+
+				return Math.floorMod(h, 100) < 3 ? 1 + Math.floorMod(h >>> 8, 8) : 0;
+			});
+		}
+	}
+
+	private interface CellSource {
+		int get(int x, int y);
+	}
+
+	private static DataOutputStream open(String filename, int width, int height) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+
+		out.writeInt(MAGIC);
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeInt(CHUNK_BITS);
+
+		return out;
+	}
+
+	private static void writeChunks(OutputStream out, int width, int height, CellSource source) throws IOException {
+		byte[] cells = new byte[CHUNK_CELLS];
+
+		for (int cy = 0; cy < height; cy += CHUNK_SIZE) {
+			for (int cx = 0; cx < width; cx += CHUNK_SIZE) {
+				for (int y = 0; y < CHUNK_SIZE; ++y) {
+					for (int x = 0; x < CHUNK_SIZE; ++x) {
+						boolean inside = cx + x < width && cy + y < height;
+						cells[(y << CHUNK_BITS) | x] = (byte) (inside ? source.get(cx + x, cy + y) : 0);
+					}
+				}
+
+				out.write(cells);
+			}
+		}
+	}
+}
@@ -0,0 +1,205 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// 256 colors picked by median cut from the textures and any other colors a scene
+// draws, with every texture indexed into them, for the 8-bit render mode. Index 0 is
+// black, which sprites treat as transparent, and nothing else maps to it. Shaded wall
+// sides look their colors up again in a table of the same colors at half brightness.
+public class Palette {
+	public final static int SIZE = 256;
+
+	private final int[] colors = new int[SIZE];
+	private final byte[] shade = new byte[SIZE];
+	private final byte[] identity = new byte[SIZE];
+	private int size = 1;
+
+	private final byte[][][] mipmaps = new byte[Textures.LEVELS][][];
+	private final byte[][][] columns = new byte[Textures.LEVELS][][];
+
+	public Palette(Textures textures, int[] extraColors) {
+		// how often each color occurs, its half-brightness shade included
+		HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+
+		for (int[] texture : textures.getTexels()) {
+			for (int color : texture) {
+				counts.merge(color & 0xFFFFFF, 1, Integer::sum);
+				counts.merge((color >> 1) & 8355711, 1, Integer::sum);
+			}
+		}
+		for (int color : extraColors)
+			counts.merge(color & 0xFFFFFF, 1, Integer::sum);
+
+		counts.remove(0);
+		medianCut(counts);
+
+		for (int i = 0; i < SIZE; ++i) {
+			identity[i] = (byte) i;
+			shade[i] = index((colors[i] >> 1) & 8355711);
+		}
+
+		HashMap<Integer, Byte> cache = new HashMap<Integer, Byte>();
+
+		for (int level = 0; level < Textures.LEVELS; ++level) {
+			int[][] source = textures.getMipmap(level);
+			int[][] sourceColumns = textures.getColumns(level);
+
+			mipmaps[level] = new byte[source.length][];
+			columns[level] = new byte[source.length][];
+
+			for (int i = 0; i < source.length; ++i) {
+				mipmaps[level][i] = index(source[i], cache);
+				columns[level][i] = index(sourceColumns[i], cache);
+			}
+		}
+	}
+
+	// Splits the box of colors with the widest channel at its weighted median until
+	// there are as many boxes as free entries, then takes the mean of every box.
+	private void medianCut(HashMap<Integer, Integer> counts) {
+		List<int[]> boxes = new ArrayList<int[]>();
+		int[] all = new int[counts.size()];
+		int n = 0;
+		for (int color : counts.keySet())
+			all[n++] = color;
+		if (n > 0)
+			boxes.add(all);
+
+		while (boxes.size() < SIZE - 1) {
+			int widest = -1, widestShift = 0, widestRange = 0;
+
+			for (int b = 0; b < boxes.size(); ++b) {
+				for (int shift = 0; shift < 24; shift += 8) {
+					int range = range(boxes.get(b), shift);
+					if (range > widestRange) {
+						widest = b;
+						widestShift = shift;
+						widestRange = range;
+					}
+				}
+			}
+
+			// every box holds a single color
+			if (widest < 0)
+				break;
+
+			int[] box = boxes.get(widest);
+			final int shift = widestShift;
+			Integer[] sorted = new Integer[box.length];
+			for (int i = 0; i < box.length; ++i)
+				sorted[i] = box[i];
+			Arrays.sort(sorted, (a, b) -> ((a >> shift) & 255) - ((b >> shift) & 255));
+
+			long total = 0;
+			for (int color : box)
+				total += counts.get(color);
+
+			// the first color past half the weight starts the upper box, which is never empty
+			int split = 1;
+			long below = counts.get(sorted[0]);
+			while (split < sorted.length - 1 && below * 2 < total)
+				below += counts.get(sorted[split++]);
+
+			int[] lower = new int[split];
+			int[] upper = new int[sorted.length - split];
+			for (int i = 0; i < sorted.length; ++i) {
+				if (i < split)
+					lower[i] = sorted[i];
+				else
+					upper[i - split] = sorted[i];
+			}
+
+			boxes.set(widest, lower);
+			boxes.add(upper);
+		}
+
+		for (int[] box : boxes) {
+			long r = 0, g = 0, b = 0, weight = 0;
+
+			for (int color : box) {
+				int count = counts.get(color);
+				r += (long) ((color >> 16) & 255) * count;
+				g += (long) ((color >> 8) & 255) * count;
+				b += (long) (color & 255) * count;
+				weight += count;
+			}
+
+			int color = (int) ((r + weight / 2) / weight) << 16 | (int) ((g + weight / 2) / weight) << 8
+					| (int) ((b + weight / 2) / weight);
+
+			// a mean that rounds to black would make that box transparent
+			colors[size++] = color == 0 ? 0x010101 : color;
+		}
+	}
+
+	private static int range(int[] box, int shift) {
+		int min = 255, max = 0;
+
+		for (int color : box) {
+			int channel = (color >> shift) & 255;
+			min = Math.min(min, channel);
+			max = Math.max(max, channel);
+		}
+
+		return max - min;
+	}
+
+	// The entry closest to color, by squared distance in RGB. Only black gets index 0.
+	public byte index(int color) {
+		color &= 0xFFFFFF;
+		if (color == 0)
+			return 0;
+
+		int best = 1;
+		int bestDistance = Integer.MAX_VALUE;
+
+		for (int i = 1; i < size; ++i) {
+			int dr = ((color >> 16) & 255) - ((colors[i] >> 16) & 255);
+			int dg = ((color >> 8) & 255) - ((colors[i] >> 8) & 255);
+			int db = (color & 255) - (colors[i] & 255);
+			int distance = dr * dr + dg * dg + db * db;
+
+			if (distance < bestDistance) {
+				best = i;
+				bestDistance = distance;
+			}
+		}
+
+		return (byte) best;
+	}
+
+	private byte[] index(int[] texels, HashMap<Integer, Byte> cache) {
+		byte[] result = new byte[texels.length];
+
+		for (int i = 0; i < texels.length; ++i)
+			result[i] = cache.computeIfAbsent(texels[i], this::index);
+
+		return result;
+	}
+
+	// RGB of each index; unused entries are black.
+	public int[] getColors() {
+		return colors;
+	}
+
+	// Index of each color at half brightness.
+	public byte[] getShade() {
+		return shade;
+	}
+
+	// Maps every index to itself, for unshaded surfaces.
+	public byte[] getIdentity() {
+		return identity;
+	}
+
+	// Every texture at the given level as indices, laid out like Textures.getMipmap.
+	public byte[][] getMipmap(int level) {
+		return mipmaps[level];
+	}
+
+	// Every texture at the given level as indices, laid out like Textures.getColumns.
+	public byte[][] getColumns(int level) {
+		return columns[level];
+	}
+}
@@ -0,0 +1,55 @@
+// Ray directions of every column relative to the view direction. The table only
+// changes with the field of view, so a frame costs one rotation instead of trig
+// per column.
+public class RayTable {
+	private final int columns;
+	private final double[] offsetCos;
+	private final double[] offsetSin;
+
+	private double fov = Double.NaN;
+	private double distToProjection;
+
+	private double dirCos;
+	private double dirSin;
+
+	public RayTable(int columns) {
+		this.columns = columns;
+		offsetCos = new double[columns];
+		offsetSin = new double[columns];
+	}
+
+	public void update(double fov, double direction) {
+		if (fov != this.fov) {
+			for (int col = 0; col < columns; ++col) {
+				double offset = (fov / 2) - (fov * ((double) col / (double) (columns - 1)));
+
+				offsetCos[col] = Math.cos(offset);
+				offsetSin[col] = Math.sin(offset);
+			}
+
+			distToProjection = (columns * 0.5) / Math.tan(0.5 * fov);
+			this.fov = fov;
+		}
+
+		dirCos = Math.cos(direction);
+		dirSin = Math.sin(direction);
+	}
+
+	public double getDirX(int col) {
+		return dirCos * offsetCos[col] - dirSin * offsetSin[col];
+	}
+
+	public double getDirY(int col) {
+		return -(dirSin * offsetCos[col] + dirCos * offsetSin[col]);
+	}
+
+	// Cosine of the angle between the column's ray and the view direction, which
+	// turns a distance along the ray into a perpendicular one.
+	public double getFisheye(int col) {
+		return offsetCos[col];
+	}
+
+	public double getDistToProjection() {
+		return distToProjection;
+	}
+}
@@ -0,0 +1,56 @@
+// Several cameras drawn into a grid of viewports in one framebuffer, for local
+// multiplayer or surveillance views. The views share the map and textures, which
+// nothing writes once loaded, and each has its own Renderer for the per-column state
+// of its camera. The views render at the same time, one per pool thread, and each
+// draws its own passes on that thread.
+public class SplitScreen {
+	private final Renderer[] views;
+	private final RenderPool pool;
+	private final RenderPool.Strip viewStrip = this::drawViews;
+
+	// Splits a width x height framebuffer into a grid of count views, as square as
+	// count allows, e.g. 2x2 for four. Cells the grid has left over stay as they are.
+	public SplitScreen(Map map, Textures textures, int[] framebuffer, int width, int height, int count,
+			RenderPool pool) {
+		int columns = (int) Math.ceil(Math.sqrt(count));
+		int rows = (count + columns - 1) / columns;
+		int viewWidth = width / columns;
+		int viewHeight = height / rows;
+
+		views = new Renderer[count];
+		this.pool = pool;
+
+		for (int i = 0; i < count; ++i) {
+			int offset = (i / columns) * viewHeight * width + (i % columns) * viewWidth;
+
+			// a view renders on one pool thread, so its own passes run on that thread alone
+			RenderPool own = count == 1 ? pool : new RenderPool(1);
+			views[i] = new Renderer(map, textures, framebuffer, offset, width, viewWidth, viewHeight, own);
+		}
+	}
+
+	public int getViews() {
+		return views.length;
+	}
+
+	// For the per-view settings, e.g. sprites, stats or which view gets the minimap.
+	public Renderer getView(int view) {
+		return views[view];
+	}
+
+	public void setCamera(int view, double x, double y, double direction, double fov) {
+		views[view].setCamera(x, y, direction, fov);
+	}
+
+	public void render() {
+		if (views.length == 1)
+			views[0].render();
+		else
+			pool.run(views.length, viewStrip);
+	}
+
+	private void drawViews(int from, int to) {
+		for (int i = from; i < to; ++i)
+			views[i].render();
+	}
+}
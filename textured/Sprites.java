@@ -0,0 +1,62 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// World objects drawn as billboards one cell wide, kept in flat arrays so thousands
+// of them cost no objects of their own. Black texels are see-through.
+public class Sprites {
+	private double[] x = new double[64];
+	private double[] y = new double[64];
+	private int[] texture = new int[64];
+	private int count;
+
+	public int size() {
+		return count;
+	}
+
+	public void add(double x, double y, int texture) {
+		if (count == this.x.length) {
+			this.x = Arrays.copyOf(this.x, count * 2);
+			this.y = Arrays.copyOf(this.y, count * 2);
+			this.texture = Arrays.copyOf(this.texture, count * 2);
+		}
+
+		this.x[count] = x;
+		this.y[count] = y;
+		this.texture[count] = texture;
+		count++;
+	}
+
+	public void clear() {
+		count = 0;
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+
+	public double getY(int i) {
+		return y[i];
+	}
+
+	public int getTexture(int i) {
+		return texture[i];
+	}
+
+	// Up to count sprites in the middle of random empty cells, with one of the first
+	// textures textures each.
+	public static Sprites scatter(Map map, int count, int textures, long seed) {
+		Sprites sprites = new Sprites();
+		Random random = new Random(seed);
+
+		// bounded, so a map without empty cells cannot hang
+		for (long tries = 100L * count; sprites.size() < count && tries > 0; --tries) {
+			int cellX = random.nextInt(map.getWidth());
+			int cellY = random.nextInt(map.getHeight());
+
+			if (map.get(cellX, cellY) == 0)
+				sprites.add(cellX + 0.5, cellY + 0.5, random.nextInt(textures));
+		}
+
+		return sprites;
+	}
+}
@@ -0,0 +1,108 @@
+public class Textures {
+	public final static int WIDTH = 64, HEIGHT = 64;
+
+	// 64x64 down to 1x1
+	public final static int LEVELS = 7;
+
+	private final int[][] texels;
+	private final int[][][] mipmaps;
+
+	// the same mipmaps transposed, so a texel column is contiguous for wall slices
+	private final int[][][] columns;
+
+	public Textures() {
+		texels = new int[8][WIDTH * HEIGHT];
+
+		for (int x = 0; x < WIDTH; ++x) {
+			for (int y = 0; y < HEIGHT; ++y) {
+				int xorcolor = (x * 256 / WIDTH) ^ (y * 256 / HEIGHT);
+				int ycolor = y * 256 / HEIGHT;
+				int xycolor = y * 128 / HEIGHT + x * 128 / WIDTH;
+				texels[0][WIDTH * y + x] = 65536 * 254 * ((x != y && x != WIDTH - y) ? 1 : 0);
+				texels[1][WIDTH * y + x] = xycolor + 256 * xycolor + 65536 * xycolor;
+				texels[2][WIDTH * y + x] = 256 * xycolor + 65536 * xycolor;
+				texels[3][WIDTH * y + x] = xorcolor + 256 * xorcolor + 65536 * xorcolor;
+				texels[4][WIDTH * y + x] = 256 * xorcolor;
+				texels[5][WIDTH * y + x] = 65536 * 192 * ((x % 16 != 0 && y % 16 != 0) ? 1 : 0);
+				texels[6][WIDTH * y + x] = 65536 * ycolor;
+				texels[7][WIDTH * y + x] = 128 + 256 * 128 + 65536 * 128;
+			}
+		}
+
+		mipmaps = new int[LEVELS][][];
+		mipmaps[0] = texels;
+
+		for (int level = 1; level < LEVELS; ++level) {
+			mipmaps[level] = new int[texels.length][];
+
+			for (int i = 0; i < texels.length; ++i)
+				mipmaps[level][i] = halve(mipmaps[level - 1][i], WIDTH >> (level - 1));
+		}
+
+		columns = new int[LEVELS][texels.length][];
+
+		for (int level = 0; level < LEVELS; ++level) {
+			for (int i = 0; i < texels.length; ++i)
+				columns[level][i] = transpose(mipmaps[level][i], WIDTH >> level);
+		}
+	}
+
+	private static int[] transpose(int[] texture, int size) {
+		int[] result = new int[size * size];
+
+		for (int y = 0; y < size; ++y) {
+			for (int x = 0; x < size; ++x)
+				result[size * x + y] = texture[size * y + x];
+		}
+
+		return result;
+	}
+
+	// Box filters a size x size texture down to half its size, channel by channel.
+	private static int[] halve(int[] texture, int size) {
+		int half = size / 2;
+		int[] result = new int[half * half];
+
+		for (int y = 0; y < half; ++y) {
+			for (int x = 0; x < half; ++x) {
+				int a = texture[size * (2 * y) + 2 * x];
+				int b = texture[size * (2 * y) + 2 * x + 1];
+				int c = texture[size * (2 * y + 1) + 2 * x];
+				int d = texture[size * (2 * y + 1) + 2 * x + 1];
+
+				int color = 0;
+				for (int shift = 0; shift < 24; shift += 8) {
+					int sum = ((a >> shift) & 255) + ((b >> shift) & 255) + ((c >> shift) & 255) + ((d >> shift) & 255);
+					color |= ((sum + 2) >> 2) << shift;
+				}
+
+				result[half * y + x] = color;
+			}
+		}
+
+		return result;
+	}
+
+	// The level whose texels come closest to one per pixel without going under,
+	// for a surface that advances the given number of full-size texels per pixel.
+	public static int level(int texelsPerPixel) {
+		if (texelsPerPixel <= 1)
+			return 0;
+
+		return Math.min(LEVELS - 1, 31 - Integer.numberOfLeadingZeros(texelsPerPixel));
+	}
+
+	public int[][] getTexels() {
+		return texels;
+	}
+
+	// Every texture at the given level, (WIDTH >> level) texels square.
+	public int[][] getMipmap(int level) {
+		return mipmaps[level];
+	}
+
+	// Every texture at the given level stored column by column, texel (x, y) at size * x + y.
+	public int[][] getColumns(int level) {
+		return columns[level];
+	}
+}
@@ -0,0 +1,157 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
+
+// The keys held on every simulation tick of a run, with the tick rate and the pose it
+// started from. Saved as text with a line whenever the held keys change:
+//
+//   raycaster-input 1
+//   rate 60
+//   start 9.0 9.0 1.5707963267948966
+//   0 0
+//   42 1
+//   900 end
+//
+// where each "tick keys" line holds a mask of Player.UP, DOWN, LEFT and RIGHT.
+public class InputLog {
+	private final static String MAGIC = "raycaster-input 1";
+
+	private final int tickRate;
+	private final double startX, startY, startDirection;
+
+	// keys[i] is held from tick changes[i] until the next change
+	private int[] changes = new int[64];
+	private int[] keys = new int[64];
+	private int count;
+	private int ticks;
+
+	// where getKeys last found its tick, since replays read ticks in order
+	private int cursor;
+
+	public InputLog(int tickRate, double startX, double startY, double startDirection) {
+		this.tickRate = tickRate;
+		this.startX = startX;
+		this.startY = startY;
+		this.startDirection = startDirection;
+	}
+
+	public int getTickRate() {
+		return tickRate;
+	}
+
+	public double getStartX() {
+		return startX;
+	}
+
+	public double getStartY() {
+		return startY;
+	}
+
+	public double getStartDirection() {
+		return startDirection;
+	}
+
+	public synchronized int getTicks() {
+		return ticks;
+	}
+
+	// Notes the keys held on a tick, which must come after every tick recorded so far.
+	public synchronized void record(int tick, int pressed) {
+		if (count == 0 || keys[count - 1] != pressed) {
+			if (count == changes.length) {
+				changes = Arrays.copyOf(changes, count * 2);
+				keys = Arrays.copyOf(keys, count * 2);
+			}
+
+			changes[count] = tick;
+			keys[count] = pressed;
+			count++;
+		}
+
+		ticks = tick + 1;
+	}
+
+	public synchronized int getKeys(int tick) {
+		if (count == 0 || tick < changes[0])
+			return 0;
+
+		if (tick < changes[cursor])
+			cursor = 0;
+		while (cursor + 1 < count && changes[cursor + 1] <= tick)
+			cursor++;
+
+		return keys[cursor];
+	}
+
+	public synchronized void write(String filename) {
+		try (Writer writer = Files.newBufferedWriter(Paths.get(filename))) {
+			writer.write(MAGIC + "\n");
+			writer.write("rate " + tickRate + "\n");
+			writer.write("start " + startX + " " + startY + " " + startDirection + "\n");
+
+			for (int i = 0; i < count; ++i)
+				writer.write(changes[i] + " " + keys[i] + "\n");
+
+			writer.write(ticks + " end\n");
+		} catch (IOException ex) {
+			throw new UncheckedIOException("could not write " + filename, ex);
+		}
+	}
+
+	public static InputLog read(String filename) {
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(filename))) {
+			if (!MAGIC.equals(reader.readLine()))
+				throw malformed(filename, 1, "not an input log");
+
+			String[] rate = fields(filename, 2, reader.readLine(), "rate", 2);
+			String[] start = fields(filename, 3, reader.readLine(), "start", 4);
+
+			InputLog log = new InputLog(Integer.parseInt(rate[1]), Double.parseDouble(start[1]),
+					Double.parseDouble(start[2]), Double.parseDouble(start[3]));
+
+			int line = 3;
+			String text;
+
+			while ((text = reader.readLine()) != null) {
+				line++;
+				String[] change = fields(filename, line, text, null, 2);
+				int tick = Integer.parseInt(change[0]);
+
+				if (tick < log.ticks)
+					throw malformed(filename, line, "tick " + tick + " is out of order");
+
+				if (change[1].equals("end")) {
+					log.ticks = tick;
+					return log;
+				}
+
+				log.record(tick, Integer.parseInt(change[1]));
+			}
+
+			throw malformed(filename, line, "missing end line");
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException(filename + ": " + ex.getMessage(), ex);
+		} catch (IOException ex) {
+			throw new UncheckedIOException("could not read " + filename, ex);
+		}
+	}
+
+	private static String[] fields(String filename, int line, String text, String key, int count) {
+		String[] fields = text == null ? new String[0] : text.trim().split("\\s+");
+
+		if (fields.length != count || (key != null && !fields[0].equals(key)))
+			throw malformed(filename, line, "expected " + (key != null ? key + " and " : "") + count + " fields");
+
+		return fields;
+	}
+
+	private static IllegalArgumentException malformed(String filename, int line, String message) {
+		return new IllegalArgumentException(filename + ":" + line + ": " + message);
+	}
+}
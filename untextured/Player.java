@@ -0,0 +1,59 @@
+// The player's pose and how the arrow keys move it through the map. The window and
+// headless replays step the same code, so a recorded run takes the same path in both.
+public class Player {
+	public final static int UP = 1, DOWN = 2, LEFT = 4, RIGHT = 8;
+
+	private final Map map;
+
+	private double speed = 5f;
+	private double x;
+	private double y;
+	private double direction;
+
+	public Player(Map map, double x, double y, double direction) {
+		this.map = map;
+		this.x = x;
+		this.y = y;
+		this.direction = direction;
+	}
+
+	public double getX() {
+		return x;
+	}
+
+	public double getY() {
+		return y;
+	}
+
+	public double getDirection() {
+		return direction;
+	}
+
+	// Moves the player by dt seconds with the given keys held. StrictMath keeps a
+	// replayed path the same on every JVM.
+	public void update(double dt, int keys) {
+		if ((keys & LEFT) != 0)
+			direction = (direction + (dt * 1.3) + Raycaster.TAU) % Raycaster.TAU;
+		else if ((keys & RIGHT) != 0)
+			direction = (direction - (dt * 1.3) + Raycaster.TAU) % Raycaster.TAU;
+
+		if ((keys & UP) != 0) {
+			double nextX = x + (StrictMath.cos(direction) * speed * dt);
+			double nextY = y - (StrictMath.sin(direction) * speed * dt);
+
+			if (map.get(nextX, nextY) == 0) {
+				x = nextX;
+				y = nextY;
+			}
+		}
+		else if ((keys & DOWN) != 0) {
+			double nextX = x - (StrictMath.cos(direction) * speed * dt);
+			double nextY = y + (StrictMath.sin(direction) * speed * dt);
+
+			if (map.get(nextX, nextY) == 0) {
+				x = nextX;
+				y = nextY;
+			}
+		}
+	}
+}
@@ -0,0 +1,58 @@
+// The player's pose after one simulation tick, along with the pose of the tick
+// before, so a frame drawn between ticks can blend the two. Never changes once
+// published.
+public final class PlayerState {
+	private final double x, y, direction;
+	private final double previousX, previousY, previousDirection;
+	private final long time;
+
+	// The pose of previous becomes the one this state blends from; null starts from rest.
+	public PlayerState(double x, double y, double direction, long time, PlayerState previous) {
+		this.x = x;
+		this.y = y;
+		this.direction = direction;
+		this.time = time;
+
+		previousX = previous != null ? previous.x : x;
+		previousY = previous != null ? previous.y : y;
+		previousDirection = previous != null ? previous.direction : direction;
+	}
+
+	public double getX() {
+		return x;
+	}
+
+	public double getY() {
+		return y;
+	}
+
+	public double getDirection() {
+		return direction;
+	}
+
+	// System.nanoTime() of the tick that produced this state
+	public long getTime() {
+		return time;
+	}
+
+	// alpha 0 is the previous tick's pose and 1 this one's
+	public double getX(double alpha) {
+		return previousX + (x - previousX) * alpha;
+	}
+
+	public double getY(double alpha) {
+		return previousY + (y - previousY) * alpha;
+	}
+
+	public double getDirection(double alpha) {
+		double turn = direction - previousDirection;
+
+		// the short way round when the direction wrapped past 0 or TAU
+		if (turn > Math.PI)
+			turn -= Raycaster.TAU;
+		else if (turn < -Math.PI)
+			turn += Raycaster.TAU;
+
+		return previousDirection + turn * alpha;
+	}
+}
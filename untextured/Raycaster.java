@@ -1,6 +1,7 @@
 import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
@@ -10,6 +11,14 @@ import java.awt.image.DataBufferInt;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.concurrent.locks.LockSupport;
+
 import javax.swing.JFrame;
 
 public class Raycaster implements Runnable {
@@ -22,18 +31,53 @@ public class Raycaster implements Runnable {
 	private int[] framebuffer;
 	private Canvas canvas;
 	private JFrame frame;
-	private boolean running;
+	private volatile boolean running;
 	private int fps;
 
 	private Map map;	
 
-	private double playerSpeed = 5f;
-	private double playerX = 9;
-	private double playerY = 9;
+	private Player player;
 	private double playerFov = Math.toRadians(66.6);
-	private double playerDirection = Math.toRadians(90);
 
-	private boolean leftPressed, rightPressed, upPressed, downPressed;
+	// -Draycaster.tickrate sets how many fixed simulation steps run per second,
+	// unless a replay brings its own
+	private int tickRate;
+	private long tickNanos;
+
+	// -Draycaster.record=run.log saves the keys of every tick there on exit, and
+	// -Draycaster.replay=run.log plays them back instead of reading the keyboard
+	private InputLog recording;
+	private InputLog replay;
+
+	// set by the event thread, read by the simulation thread
+	private volatile boolean leftPressed, rightPressed, upPressed, downPressed;
+
+	private Minimap minimap;
+	private Sprites sprites;
+	private Renderer renderer;
+	private RenderPool pool;
+
+	// set when frames are raycast on their own thread, see initBuffer
+	private FramePipeline pipeline;
+
+	// -Draycaster.cameras=N shows the player beside N - 1 security cameras sweeping
+	// fixed spots of the map, each view as big as the single one. The pipeline and the
+	// resolution scaler only drive a single view.
+	private SplitScreen split;
+	private Sprites cameraSpots;
+
+	// -Draycaster.targetfps=60 changes the render resolution to hold that frame rate,
+	// between -Draycaster.minwidth and -Draycaster.maxwidth pixels across
+	private ResolutionScaler scaler;
+
+	private final static Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+	// F3 or -Draycaster.overlay=true shows the frame time percentiles
+	private FrameStats stats;
+	private volatile boolean overlay = Boolean.getBoolean("raycaster.overlay");
+
+	// the latest tick's player state, the only pose the render thread reads
+	private volatile PlayerState snapshot;
 
 	public static void main(String[] args) {
 		new Raycaster();
@@ -73,6 +117,7 @@ public class Raycaster implements Runnable {
 					case KeyEvent.VK_LEFT: leftPressed = true; break;
 					case KeyEvent.VK_DOWN: downPressed = true; break;
 					case KeyEvent.VK_RIGHT: rightPressed = true; break;
+					case KeyEvent.VK_F3: overlay = !overlay; break;
 				}
 			}
 
@@ -96,237 +141,296 @@ public class Raycaster implements Runnable {
 	}
 
 	private void initAssets() {
-		map = new Map("assets/map.txt");
+		// -Draycaster.map=world.tiles flies through a paged map, see PagedMap
+		String mapFile = System.getProperty("raycaster.map", "assets/map.txt");
+		map = mapFile.endsWith(".tiles") ? new PagedMap(mapFile, PagedMap.defaultBudget()) : new Map(mapFile);
+
+		// -Draycaster.clearance=true lets rays skip open space, see Map.buildClearance
+		if (Boolean.getBoolean("raycaster.clearance")) {
+			map.buildClearance();
+			if (!map.hasClearance())
+				System.err.println("warning: " + mapFile + " is paged and has no clearance field, rays step every cell");
+		}
+
+		minimap = new Minimap(map, Minimap.defaultScale());
+
+		// -Draycaster.sprites=N scatters N objects over the empty cells
+		sprites = Sprites.scatter(map, Integer.getInteger("raycaster.sprites", 32), 42);
+
+		String replayFile = System.getProperty("raycaster.replay");
+		if (replayFile != null) {
+			replay = InputLog.read(replayFile);
+			tickRate = replay.getTickRate();
+			player = new Player(map, replay.getStartX(), replay.getStartY(), replay.getStartDirection());
+		} else {
+			tickRate = Math.max(1, Integer.getInteger("raycaster.tickrate", 60));
+			player = new Player(map, 9, 9, Math.toRadians(90));
+		}
+
+		tickNanos = 1000000000L / tickRate;
+
+		String recordFile = System.getProperty("raycaster.record");
+		if (recordFile != null) {
+			recording = new InputLog(tickRate, player.getX(), player.getY(), player.getDirection());
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> recording.write(recordFile)));
+		}
 	}
 
 	private void start() {
 		if (!running) {
 			running = true;
+			snapshot = new PlayerState(player.getX(), player.getY(), player.getDirection(), System.nanoTime(), null);
+
+			Thread simulation = new Thread(this::simulate, "simulation");
+			simulation.setDaemon(true);
+			simulation.start();
+
+			if (pipeline != null)
+				pipeline.start(this::produce);
+
 			new Thread(this).start();
 		}
 	}
 
 	private void initBuffer() {
-		bitmap = new BufferedImage(VIRTUAL_WIDTH, VIRTUAL_HEIGHT, 
-			BufferedImage.TYPE_INT_RGB);
+		pool = new RenderPool(RenderPool.defaultSize());
+
+		// -Draycaster.stats=frames.csv writes every second's percentiles to that file
+		String statsFile = System.getProperty("raycaster.stats");
+		try {
+			stats = new FrameStats(statsFile == null ? null : Files.newBufferedWriter(Paths.get(statsFile)));
+		} catch (IOException ex) {
+			throw new UncheckedIOException("could not open " + statsFile, ex);
+		}
+
+		int cameras = Math.max(1, Integer.getInteger("raycaster.cameras", 1));
+		if (cameras > 1) {
+			int columns = (int)Math.ceil(Math.sqrt(cameras));
+			int rows = (cameras + columns - 1) / columns;
+
+			bitmap = new BufferedImage(VIRTUAL_WIDTH * columns, VIRTUAL_HEIGHT * rows, BufferedImage.TYPE_INT_RGB);
+			framebuffer = ((DataBufferInt) bitmap.getRaster().getDataBuffer()).getData();
+			split = new SplitScreen(map, framebuffer, bitmap.getWidth(), bitmap.getHeight(), cameras, pool);
+			cameraSpots = Sprites.scatter(map, cameras - 1, 7);
+
+			// the minimap follows the player, so only the player's view has one
+			for (int i = 0; i < cameras; ++i) {
+				configure(split.getView(i));
+				if (i > 0)
+					split.getView(i).setMinimap(null);
+			}
+			return;
+		}
+
+		int width = VIRTUAL_WIDTH, height = VIRTUAL_HEIGHT;
+
+		String targetFps = System.getProperty("raycaster.targetfps");
+		if (targetFps != null) {
+			scaler = new ResolutionScaler(Integer.getInteger("raycaster.minwidth", 160),
+					Integer.getInteger("raycaster.maxwidth", 1280), VIRTUAL_WIDTH, Double.parseDouble(targetFps));
+			width = scaler.getWidth();
+			height = scaler.getHeight();
+		}
+
+		// -Draycaster.pipeline=2 or 3 raycasts the next frame into one of that many
+		// images while the window shows the last one
+		int backings = Integer.getInteger("raycaster.pipeline", 0);
+		if (backings > 0) {
+			pipeline = new FramePipeline(Math.max(2, Math.min(3, backings)), width, height,
+					this::createRenderer);
+			return;
+		}
 
-		framebuffer = ((DataBufferInt)bitmap.getRaster().getDataBuffer()).getData();		
+		createBitmap(width, height);
+	}
+
+	private void createBitmap(int width, int height) {
+		bitmap = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+		framebuffer = ((DataBufferInt) bitmap.getRaster().getDataBuffer()).getData();
+
+		renderer = createRenderer(bitmap);
+	}
+
+	private Renderer createRenderer(BufferedImage image) {
+		int[] framebuffer = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		Renderer renderer = new Renderer(map, framebuffer, image.getWidth(), image.getHeight(), pool);
+		configure(renderer);
+
+		return renderer;
+	}
+
+	private void configure(Renderer renderer) {
+		renderer.setMinimap(minimap);
+		renderer.setSprites(sprites);
+		renderer.setStats(stats);
+
+		// -Draycaster.reuse=false casts every column of every frame
+		renderer.setTemporalReuse(Boolean.parseBoolean(System.getProperty("raycaster.reuse", "true")));
 	}
 
 	@Override
 	public void run() {
-		long lastTime = System.nanoTime();
 		long secondTime = System.currentTimeMillis() + 1000;
 
 		int frames = 0;
-		double delta = 0;
 
 		BufferStrategy buffer = canvas.getBufferStrategy();
+		long frameEnd = System.nanoTime();
+
+		// draws as fast as it can; the game itself moves on in simulate()
+		while (running) {
+			BufferedImage image = bitmap;
+			boolean drawn = true;
 
-		while (running) {					
-			long currentTime = System.nanoTime();
-			long timeDifference = currentTime - lastTime;
-			lastTime = currentTime;
+			if (split != null) {
+				produceSplit();
+			} else if (pipeline == null) {
+				drawn = produce(renderer);
+			} else {
+				try {
+					image = pipeline.next();
+					drawn = pipeline.isDrawn();
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
 
-			delta = timeDifference * 1e-9; // in seconds
-					
-			update(delta);
+			long presentStart = System.nanoTime();
 
-			do {					
+			do {
 				do {
 					frames++;
 					Graphics2D g = (Graphics2D) buffer.getDrawGraphics();
 
-					render(g);
+					present(g, image);
 					g.dispose();
 				} while (buffer.contentsRestored());
 
 				buffer.show();
 			} while (buffer.contentsLost());
 
+			long now = System.nanoTime();
+			stats.record(FrameStats.PRESENT, now - presentStart);
+
+			// The scaler gets whole frame intervals, presenting included. A frame the renderer
+			// reused costs next to nothing and says nothing about what a drawn one would.
+			if (scaler != null && drawn && scaler.record(now - frameEnd))
+				resize(scaler.getWidth(), scaler.getHeight());
+			frameEnd = now;
+
 			if (System.currentTimeMillis() >= secondTime) {
 				fps = frames;
 				frames = 0;
+				stats.publish();
 
-				frame.setTitle("Untextured raycasting demo. FPS: " + fps);
+				frame.setTitle("Untextured raycasting demo. FPS: " + fps
+						+ (scaler != null ? ", " + image.getWidth() + "x" + image.getHeight() : ""));
 
 				secondTime = System.currentTimeMillis() + 1000;
 			}
 		}
-	}
-
-	private void update(double dt) {
-		if (leftPressed)
-			playerDirection = (playerDirection + (dt * 1.3) + TAU) % TAU;
-		else if (rightPressed)
-			playerDirection = (playerDirection - (dt * 1.3) + TAU) % TAU;
-		
-		if (upPressed) {
-			double nextX = playerX + (Math.cos(playerDirection) * playerSpeed * dt);
-			double nextY = playerY - (Math.sin(playerDirection) * playerSpeed * dt);
-
-			if (map.get(nextX, nextY) == 0) {
-				playerX = nextX;
-				playerY = nextY;
-			}
-		}
-		else if (downPressed) {
-			double nextX = playerX - (Math.cos(playerDirection) * playerSpeed * dt);
-			double nextY = playerY + (Math.sin(playerDirection) * playerSpeed * dt);			
 
-			if (map.get(nextX, nextY) == 0) {
-				playerX = nextX;
-				playerY = nextY;
-			}
-		}
+		// only a finished replay gets here, so report its last second and close
+		stats.publish();
+		frame.dispose();
 	}
 
-	private void drawWalls() {
-		double distToProjection = (VIRTUAL_WIDTH * 0.5) / Math.tan(0.5 * playerFov);
-
-		castRays:
-		for (int col = 0; col < VIRTUAL_WIDTH; ++col) {
-			double alpha = playerDirection + (playerFov / 2) - 
-				(playerFov * ((double)col / (double)(VIRTUAL_WIDTH - 1)));
-			
-			double rayDirX = Math.cos(alpha);
-			double rayDirY = -Math.sin(alpha);
-
-			int mapX = (int)playerX;
-			int mapY = (int)playerY;
-
-			double sideDistX;
-			double sideDistY;
-
-			double deltaDistX = Math.abs(1.0 / rayDirX);
-			double deltaDistY = Math.abs(1.0 / rayDirY);
-
-			int stepX = (int)Math.signum(rayDirX);
-			int stepY = (int)Math.signum(rayDirY);
-
-			if (rayDirX < 0) {
-				sideDistX = (playerX - mapX) * deltaDistX;
-			} else {
-				sideDistX = (mapX + 1 - playerX) * deltaDistX;
-			}
-
-			if (rayDirY < 0) {
-				sideDistY = (playerY - mapY) * deltaDistY;
-			} else {
-				sideDistY = (mapY + 1 - playerY) * deltaDistY;
-			}
-
-			boolean hit = false;
-			int side = 0;
-
-			while (!hit) {
-				if (sideDistX < sideDistY) {
-					sideDistX += deltaDistX;
-					mapX += stepX;
-					side = 0;
-				} else {
-					sideDistY += deltaDistY;
-					mapY += stepY;
-					side = 1;
-				}
-				
-				int tile = map.get(mapX, mapY);
-				if (tile == -1) continue castRays;
-				if (tile > 0) hit = true;
-			}
+	// Steps the game at a fixed rate on its own thread, so a slow frame never slows
+	// the game down, and publishes the player state after every tick.
+	private void simulate() {
+		long next = System.nanoTime();
+		int tick = 0;
 
-			double d;
-			double p;
+		while (running) {
+			int keys = replay != null ? replay.getKeys(tick) : pressedKeys();
+			if (recording != null)
+				recording.record(tick, keys);
 
-			if (side == 0) 	d = (mapX - playerX + (1 - stepX) / 2) / rayDirX;
-			else			d = (mapY - playerY + (1 - stepY) / 2) / rayDirY;
+			long tickStart = System.nanoTime();
+			player.update(1.0 / tickRate, keys);
 
-			p = d * Math.cos(alpha - playerDirection);
+			long now = System.nanoTime();
+			stats.record(FrameStats.UPDATE, now - tickStart);
+			snapshot = new PlayerState(player.getX(), player.getY(), player.getDirection(), now, snapshot);
 
-			int sliceHeight = (int)(distToProjection / p);			
+			// a replay ends with its log
+			tick++;
+			if (replay != null && tick >= replay.getTicks())
+				running = false;
 
-			int drawBegin = (VIRTUAL_HEIGHT / 2) - (sliceHeight / 2);
-			int drawEnd = (VIRTUAL_HEIGHT / 2) + (sliceHeight / 2);
+			next += tickNanos;
 
-			drawBegin = Math.max(0, drawBegin);
-			drawEnd = Math.min(VIRTUAL_HEIGHT, drawEnd);
+			// after a long stall, e.g. in a debugger, carry on from now instead of catching up
+			if (now - next > 5 * tickNanos)
+				next = now;
 
-			int tile = map.get(mapX, mapY);
-			Color color = new Color(255, 255, 255);
-
-			switch (tile) {
-				case Map.R: color = new Color(150, 0, 0);
-			}
-
-			if (side == 1)	color = color.darker();
-		
-			int c = color.getRGB();
-
-			for (int y = drawBegin; y < drawEnd; ++y) {
-				framebuffer[y * VIRTUAL_WIDTH + col] = c;
-			}
+			LockSupport.parkNanos(next - now);
 		}
 	}
 
-	private void drawFloorAndCeiling() {
-		int c = 255;
+	private int pressedKeys() {
+		int keys = 0;
 
-		for (int r = 0; r < VIRTUAL_HEIGHT/2; ++r) {
-			int color = new Color(c, 125, 225).getRGB();
+		if (upPressed) keys |= Player.UP;
+		if (downPressed) keys |= Player.DOWN;
+		if (leftPressed) keys |= Player.LEFT;
+		if (rightPressed) keys |= Player.RIGHT;
 
-			for (int col = 0; col < VIRTUAL_WIDTH; ++col) {
-				framebuffer[VIRTUAL_WIDTH * r + col] = color;
-			}
+		return keys;
+	}
 
-			c--;
-		}
+	private void stop() {
+		running = false;
+	}
 
-		c = 22;
-		for (int r = VIRTUAL_HEIGHT / 2; r < VIRTUAL_HEIGHT; ++r) {
-			int color = new Color(150 - c, 150 - c, 150 - c).getRGB();
+	// Raycasts a frame of the latest snapshot, on the producer thread when pipelined.
+	// Returns false when the renderer still held that frame and drew nothing.
+	private boolean produce(Renderer renderer) {
+		PlayerState state = snapshot;
 
-			for (int col = 0; col < VIRTUAL_WIDTH; ++col) {
-				framebuffer[VIRTUAL_WIDTH *r + col] = color;
-			}
+		// a tick behind the simulation, blending from its previous state to its latest
+		double alpha = Math.max(0, Math.min(1, (System.nanoTime() - state.getTime()) / (double) tickNanos));
+		renderer.setCamera(state.getX(alpha), state.getY(alpha), state.getDirection(alpha), playerFov);
 
-			c++;
-		}
+		return renderer.render();
 	}
 
-	private void drawMinimap() {
-		int white = new Color(255, 255, 255).getRGB();
-		int black = new Color(0, 0, 0).getRGB();
-		int red = new Color(255, 0, 0).getRGB();
-
-		for (int r = 0; r < map.getHeight(); ++r) {
-			for (int c = 0; c < map.getWidth(); ++c) {				
-				switch (map.get(c, r)) {					
-					case 0: framebuffer[r * VIRTUAL_WIDTH + c] = black; break;
-					default: framebuffer[r * VIRTUAL_WIDTH + c] = white; break;
-				}
-			}
+	// The player's view and the security cameras, drawn side by side on the pool.
+	private void produceSplit() {
+		PlayerState state = snapshot;
+		double alpha = Math.max(0, Math.min(1, (System.nanoTime() - state.getTime()) / (double) tickNanos));
+		split.setCamera(0, state.getX(alpha), state.getY(alpha), state.getDirection(alpha), playerFov);
+
+		// each camera faces its own way and pans half a radian either side of it
+		double pan = 0.5 * Math.sin(System.nanoTime() * 0.5e-9);
+		for (int i = 1; i < split.getViews(); ++i) {
+			split.setCamera(i, cameraSpots.getX(i - 1), cameraSpots.getY(i - 1),
+					(TAU * i / split.getViews() + pan + TAU) % TAU, playerFov);
 		}
 
-		framebuffer[(int)playerY * VIRTUAL_WIDTH + (int)playerX] = red;
+		split.render();
 	}
 
-	private void stop() {
-		running = false;
+	// Moves later frames to a new size. run() calls this once a frame is presented, so
+	// only the next one is affected, pipelined or not.
+	private void resize(int width, int height) {
+		if (pipeline != null)
+			pipeline.setSize(width, height);
+		else
+			createBitmap(width, height);
 	}
 
-	private void render(Graphics2D g) {
-		drawFloorAndCeiling();
-		drawWalls();
-		drawMinimap();
-
+	// Scales a finished frame into the window.
+	private void present(Graphics2D g, BufferedImage image) {
 		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
 		g.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
 		
 		int windowWidth = canvas.getWidth();
 		int windowHeight = canvas.getHeight();
 
-		float scaleWidth = (float)windowWidth / VIRTUAL_WIDTH;
-		float scaleHeight = (float)windowHeight / VIRTUAL_HEIGHT;
+		float scaleWidth = (float)windowWidth / image.getWidth();
+		float scaleHeight = (float)windowHeight / image.getHeight();
 
 		if (scaleWidth < scaleHeight) {
 			scaleHeight = scaleWidth;
@@ -334,14 +438,24 @@ public class Raycaster implements Runnable {
 			scaleWidth = scaleHeight;
 		}		
 
-		float realWidth = VIRTUAL_WIDTH * scaleWidth;
-		float realHeight = VIRTUAL_HEIGHT * scaleHeight;
+		float realWidth = image.getWidth() * scaleWidth;
+		float realHeight = image.getHeight() * scaleHeight;
 
 		int vpX = (int)((windowWidth - realWidth) * 0.5f);
 		int vpY = (int)((windowHeight - realHeight) * 0.5f);
 
 		g.translate(vpX, vpY);
 		g.scale(scaleWidth, scaleHeight);
-		g.drawImage(bitmap, 0, 0, null);
+		g.drawImage(image, 0, 0, null);
+
+		if (overlay) {
+			// back to window pixels, so the text stays readable at any scale
+			g.scale(1 / scaleWidth, 1 / scaleHeight);
+			g.setFont(OVERLAY_FONT);
+			g.setColor(Color.WHITE);
+
+			for (int phase = 0; phase < stats.phases(); ++phase)
+				g.drawString(stats.describe(phase), 8, 16 + 14 * phase);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+public class RenderPool {
+	public interface Strip {
+		void draw(int from, int to);
+	}
+
+	private final Thread[] workers;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	private volatile int generation;
+	private volatile Thread caller;
+
+	private Strip strip;
+	private int count;
+
+	public static int defaultSize() {
+		return Integer.getInteger("raycaster.workers", Runtime.getRuntime().availableProcessors());
+	}
+
+	public RenderPool(int size) {
+		workers = new Thread[Math.max(1, size) - 1];
+
+		for (int i = 0; i < workers.length; ++i) {
+			final int index = i + 1;
+
+			workers[i] = new Thread(() -> work(index), "render-worker-" + index);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	public int size() {
+		return workers.length + 1;
+	}
+
+	// Splits [0, count) into one strip per thread and blocks until all of them are drawn.
+	// The calling thread draws the first strip itself. With fewer items than threads some
+	// strips are empty, so even two items go to two threads. The first thing a worker
+	// throws, Errors included, is rethrown here once every strip has finished. Not reentrant.
+	public synchronized void run(int count, Strip strip) {
+		int n = size();
+
+		if (n == 1 || count <= 1) {
+			strip.draw(0, count);
+			return;
+		}
+
+		this.strip = strip;
+		this.count = count;
+		caller = Thread.currentThread();
+		pending.set(workers.length);
+		generation++; // publishes strip and count to the workers
+
+		for (Thread worker : workers)
+			LockSupport.unpark(worker);
+
+		Throwable ex = null;
+
+		try {
+			strip.draw(0, count / n);
+		} finally {
+			while (pending.get() > 0)
+				LockSupport.park(this);
+
+			this.strip = null;
+			ex = failure.getAndSet(null);
+		}
+
+		if (ex instanceof RuntimeException)
+			throw (RuntimeException) ex;
+		if (ex instanceof Error)
+			throw (Error) ex;
+		if (ex != null)
+			throw new RuntimeException(ex);
+	}
+
+	private void work(int index) {
+		int seen = 0;
+
+		while (true) {
+			while (generation == seen)
+				LockSupport.park(this);
+
+			seen = generation;
+
+			int n = size();
+
+			try {
+				strip.draw((int) ((long) count * index / n), (int) ((long) count * (index + 1) / n));
+			} catch (Throwable ex) {
+				// kept rather than let out, so the worker lives on for the next run
+				failure.compareAndSet(null, ex);
+			} finally {
+				if (pending.decrementAndGet() == 0)
+					LockSupport.unpark(caller);
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+// Picks the render resolution from recent frame times: a step down as soon as frames
+// run over the budget, but a step up only after several windows in which the next size
+// would have fitted with room to spare, so it settles instead of flickering between two
+// sizes as the view gets cheaper and dearer. Sizes keep the 16:10 shape of 320x200, a quarter wider per step.
+public class ResolutionScaler {
+	// frames averaged per decision
+	private final static int WINDOW = 30;
+
+	// shares of the budget that step down and that the next step up has to stay under
+	private final static double DOWN = 0.95, UP = 0.7;
+
+	// windows in a row that must leave room for the next size before stepping up
+	private final static int UP_WINDOWS = 4;
+
+	private final int[] widths;
+	private final long budgetNanos;
+	private int step;
+
+	private long total;
+	private int frames;
+	private int roomy;
+
+	// set after a change, so the window holding the reallocation is thrown away
+	private boolean settling;
+
+	public ResolutionScaler(int minWidth, int maxWidth, int startWidth, double targetFps) {
+		int min = Math.max(8, minWidth & ~7);
+		int max = Math.max(min, maxWidth & ~7);
+
+		int count = 1;
+		for (int w = min; w < max; w = next(w))
+			count++;
+
+		widths = new int[count];
+		widths[0] = min;
+		for (int i = 1; i < count; ++i)
+			widths[i] = Math.min(max, next(widths[i - 1]));
+
+		while (step + 1 < widths.length && widths[step + 1] <= startWidth)
+			step++;
+
+		budgetNanos = (long)(1e9 / targetFps);
+	}
+
+	// a quarter wider, rounded to a multiple of 8 so the height stays whole
+	private static int next(int width) {
+		return (width + width / 4 + 7) & ~7;
+	}
+
+	public int getWidth() {
+		return widths[step];
+	}
+
+	public int getHeight() {
+		return widths[step] * 5 / 8;
+	}
+
+	// Adds the time from the end of the last frame to the end of this one, drawing and
+	// presenting included. Returns true when the size changed.
+	public boolean record(long nanos) {
+		total += nanos;
+		if (++frames < WINDOW)
+			return false;
+
+		double mean = (double)total / frames;
+		total = 0;
+		frames = 0;
+
+		if (settling) {
+			settling = false;
+			return false;
+		}
+
+		// rendering time follows the pixel count
+		if (step + 1 < widths.length && mean * pixels(step + 1) / pixels(step) < UP * budgetNanos)
+			roomy++;
+		else
+			roomy = 0;
+
+		int next = step;
+
+		if (mean > DOWN * budgetNanos && step > 0)
+			next = step - 1;
+		else if (roomy >= UP_WINDOWS)
+			next = step + 1;
+
+		if (next == step)
+			return false;
+
+		step = next;
+		roomy = 0;
+		settling = true;
+		return true;
+	}
+
+	private double pixels(int step) {
+		return (double)widths[step] * widths[step];
+	}
+}
@@ -0,0 +1,37 @@
+// The solid fills of the floor and sky gradient, kept apart from Renderer so a Vector
+// API build can replace them. simd/VectorSpans.java needs the jdk.incubator.vector
+// module to compile and to run, so it is built on its own into the same class directory:
+//
+//   javac --add-modules jdk.incubator.vector -cp . -d . simd/VectorSpans.java
+//   java --add-modules jdk.incubator.vector Raycaster
+//
+// and get() falls back to these scalar loops when it's missing or can't be loaded.
+// -Draycaster.simd=false keeps the scalar loops either way.
+public class Spans {
+	private final static Spans PREFERRED = load();
+
+	public static Spans get() {
+		return PREFERRED;
+	}
+
+	private static Spans load() {
+		if (!Boolean.parseBoolean(System.getProperty("raycaster.simd", "true"))) return new Spans();
+
+		try {
+			return (Spans)Class.forName("VectorSpans").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError ex) {
+			return new Spans();
+		}
+	}
+
+	public String getName() {
+		return "scalar";
+	}
+
+	// Sets framebuffer[from] up to framebuffer[to] to color.
+	public void fill(int[] framebuffer, int from, int to, int color) {
+		for (int i = from; i < to; ++i) {
+			framebuffer[i] = color;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// World objects drawn as flat-coloured billboards half a cell wide and high, kept in
+// flat arrays so thousands of them cost no objects of their own.
+public class Sprites {
+	// colours scatter() picks from
+	public final static int[] COLORS = { 0xE0C020, 0x20A040, 0x2060E0, 0xC040C0 };
+
+	private double[] x = new double[64];
+	private double[] y = new double[64];
+	private int[] color = new int[64];
+	private int count;
+
+	public int size() {
+		return count;
+	}
+
+	public void add(double x, double y, int color) {
+		if (count == this.x.length) {
+			this.x = Arrays.copyOf(this.x, count * 2);
+			this.y = Arrays.copyOf(this.y, count * 2);
+			this.color = Arrays.copyOf(this.color, count * 2);
+		}
+
+		this.x[count] = x;
+		this.y[count] = y;
+		this.color[count] = color;
+		count++;
+	}
+
+	public void clear() {
+		count = 0;
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+
+	public double getY(int i) {
+		return y[i];
+	}
+
+	public int getColor(int i) {
+		return color[i];
+	}
+
+	// Up to count sprites in the middle of random empty cells.
+	public static Sprites scatter(Map map, int count, long seed) {
+		Sprites sprites = new Sprites();
+		Random random = new Random(seed);
+
+		// bounded, so a map without empty cells cannot hang
+		for (long tries = 100L * count; sprites.size() < count && tries > 0; --tries) {
+			int cellX = random.nextInt(map.getWidth());
+			int cellY = random.nextInt(map.getHeight());
+
+			if (map.get(cellX, cellY) == Map.EMPTY)
+				sprites.add(cellX + 0.5, cellY + 0.5, COLORS[random.nextInt(COLORS.length)]);
+		}
+
+		return sprites;
+	}
+}
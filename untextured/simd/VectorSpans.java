@@ -0,0 +1,23 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+// The fills of Spans on the Vector API, a whole int vector per store, see Spans for
+// building it.
+public class VectorSpans extends Spans {
+	private final static VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	public String getName() {
+		return "vector, " + INTS.length() + " pixels per step";
+	}
+
+	@Override
+	public void fill(int[] framebuffer, int from, int to, int color) {
+		IntVector colors = IntVector.broadcast(INTS, color);
+		int bound = from + INTS.loopBound(to - from);
+		int i = from;
+
+		for (; i < bound; i += INTS.length()) colors.intoArray(framebuffer, i);
+		for (; i < to; ++i) framebuffer[i] = color;
+	}
+}